@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.benchmarks;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import aQute.bnd.build.Container;
+import aQute.bnd.build.Project;
+import aQute.bnd.build.ProjectBuilder;
+import aQute.bnd.build.Workspace;
+import aQute.bnd.osgi.Builder;
+import aQute.bnd.osgi.Constants;
+
+/**
+ * Benchmarks of the bnd work done when importing and refreshing a generated workspace (see {@link WorkspaceGenerator}).
+ *
+ * <p>Each project is imported the way {@code BndProjectImporter} resolves it: the project is prepared and its source
+ * path, output directories, classpath containers and sub-builders are read. The benchmarks cover a full import of a
+ * newly created workspace, re-importing a single project after a change to its bnd file and a forced workspace refresh
+ * followed by a re-import of all projects.
+ *
+ * <p>The importer itself depends on the IntelliJ platform, the benchmarks only depend on bnd and make the same bnd calls
+ * as {@code BndProjectImporter#resolve} instead. Changes to the calls made by the importer need to be applied here as
+ * well, the work done by the importer on top of bnd (e.g. exported content jars and the module structure) isn't
+ * covered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ImportBenchmark {
+
+    @Param({"50", "200"})
+    public int projects;
+
+    @Param({"0", "3"})
+    public int subBundles;
+
+    @Param({"5"})
+    public int fanOut;
+
+    @Param({"100"})
+    public int repoSize;
+
+    private File myWorkspaceDir;
+    private Workspace myWorkspace;
+    private Project myProject;
+    private File myBndFile;
+    private String myBndContent;
+    private long myBndTimestamp;
+    private int myChanges;
+
+    @Setup(Level.Trial)
+    public void generateWorkspace() throws Exception {
+        myWorkspaceDir = Files.createTempDirectory("amdatu-idea-benchmark").toFile();
+        new WorkspaceGenerator()
+                .projects(projects)
+                .subBundles(subBundles)
+                .fanOut(fanOut)
+                .repoSize(repoSize)
+                .generate(myWorkspaceDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteWorkspace() throws Exception {
+        WorkspaceGenerator.delete(myWorkspaceDir);
+    }
+
+    @Setup(Level.Iteration)
+    public void importWorkspace() throws Exception {
+        // A project halfway the dependency graph, it has dependencies and projects depending on it
+        String projectName = WorkspaceGenerator.projectName(projects / 2);
+        myBndFile = new File(new File(myWorkspaceDir, projectName), Project.BNDFILE);
+        myBndContent = new String(Files.readAllBytes(myBndFile.toPath()), StandardCharsets.UTF_8);
+        // Each change sets the timestamp of the bnd file a second later, bnd ignores changes with the same timestamp
+        // and warns about timestamps in the future
+        myBndTimestamp = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        myBndFile.setLastModified(myBndTimestamp);
+
+        myWorkspace = new Workspace(myWorkspaceDir);
+        importProjects(myWorkspace.getAllProjects(), null);
+
+        myProject = myWorkspace.getProject(projectName);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWorkspace() throws Exception {
+        myWorkspace.close();
+        Files.write(myBndFile.toPath(), myBndContent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void fullImport(Blackhole blackhole) throws Exception {
+        try (Workspace workspace = new Workspace(myWorkspaceDir)) {
+            importProjects(workspace.getAllProjects(), blackhole);
+        }
+    }
+
+    @Benchmark
+    public void singleProjectReimport(Blackhole blackhole) throws Exception {
+        String content = myBndContent + "\n# change " + ++myChanges + "\n";
+        Files.write(myBndFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        myBndTimestamp += 1000;
+        myBndFile.setLastModified(myBndTimestamp);
+
+        myProject.clear();
+        myProject.refresh();
+        importProject(myProject, blackhole);
+    }
+
+    @Benchmark
+    public void workspaceRefresh(Blackhole blackhole) throws Exception {
+        myWorkspace.clear();
+        myWorkspace.forceRefresh();
+        Collection<Project> allProjects = myWorkspace.getAllProjects();
+        for (Project project : allProjects) {
+            project.forceRefresh();
+        }
+        importProjects(allProjects, blackhole);
+    }
+
+    private static void importProjects(Collection<Project> projects, Blackhole blackhole) throws Exception {
+        for (Project project : projects) {
+            importProject(project, blackhole);
+        }
+    }
+
+    private static void importProject(Project project, Blackhole blackhole) throws Exception {
+        project.prepare();
+        if (!project.isValid()) {
+            throw new IllegalStateException("Invalid project " + project + ": " + project.getErrors());
+        }
+
+        consume(blackhole, project.getSourcePath());
+        consume(blackhole, project.getTestSrc());
+        consume(blackhole, project.getSrcOutput());
+        consume(blackhole, project.getTestOutput());
+        consume(blackhole, project.getProperty(Constants.JAVAC_SOURCE));
+        consume(blackhole, project.getBootclasspath());
+        for (Container container : project.getBuildpath()) {
+            consume(blackhole, container.getFile());
+        }
+        for (Container container : project.getTestpath()) {
+            consume(blackhole, container.getFile());
+        }
+        try (ProjectBuilder projectBuilder = project.getBuilder(null)) {
+            for (Builder builder : projectBuilder.getSubBuilders()) {
+                consume(blackhole, builder.getExportPackage());
+                consume(blackhole, builder.getPrivatePackage());
+            }
+        }
+    }
+
+    private static void consume(Blackhole blackhole, Object value) {
+        if (blackhole != null) {
+            blackhole.consume(value);
+        }
+    }
+}
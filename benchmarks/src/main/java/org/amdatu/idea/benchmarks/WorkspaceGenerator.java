@@ -0,0 +1,230 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * Generates a synthetic bnd workspace to benchmark importing and refreshing workspaces of different shapes.
+ *
+ * <p>The workspace consists of a {@code cnf} project with a local file repository containing {@link #repoSize(int)}
+ * bundles and {@link #projects(int)} projects. Each project has {@link #subBundles(int)} sub-bundles (or a single
+ * bundle when 0) and a buildpath with {@link #fanOut(int)} repository bundles and up to {@link #fanOut(int)} projects
+ * generated before it, so the projects form a dependency graph without cycles. Everything is generated from a fixed
+ * seed, generating a workspace with the same parameters twice results in the same workspace.
+ *
+ * <p>Usage: {@code WorkspaceGenerator <dir> [projects] [subBundles] [fanOut] [repoSize]}
+ */
+public class WorkspaceGenerator {
+
+    static final String REPO_BSN_PREFIX = "repo.lib";
+    static final String PROJECT_PREFIX = "project";
+
+    private static final long SEED = 42L;
+    private static final int PACKAGES_PER_BUNDLE = 3;
+
+    private int myProjects = 50;
+    private int mySubBundles = 0;
+    private int myFanOut = 5;
+    private int myRepoSize = 100;
+
+    public WorkspaceGenerator projects(int projects) {
+        myProjects = projects;
+        return this;
+    }
+
+    public WorkspaceGenerator subBundles(int subBundles) {
+        mySubBundles = subBundles;
+        return this;
+    }
+
+    public WorkspaceGenerator fanOut(int fanOut) {
+        myFanOut = fanOut;
+        return this;
+    }
+
+    public WorkspaceGenerator repoSize(int repoSize) {
+        myRepoSize = repoSize;
+        return this;
+    }
+
+    /**
+     * Generate the workspace in an empty (or non existing) directory.
+     */
+    public void generate(File dir) throws IOException {
+        String[] existing = dir.list();
+        if (existing != null && existing.length > 0) {
+            throw new IOException("Directory not empty: " + dir);
+        }
+
+        Random random = new Random(SEED);
+        generateCnf(new File(dir, "cnf"));
+        for (int i = 0; i < myProjects; i++) {
+            generateProject(new File(dir, projectName(i)), i, random);
+        }
+    }
+
+    static String projectName(int index) {
+        return PROJECT_PREFIX + "." + index;
+    }
+
+    private void generateCnf(File cnf) throws IOException {
+        write(new File(cnf, "build.bnd"),
+                "-plugin.local: aQute.lib.deployer.FileRepo;name=Local;location=${workspace}/cnf/local;readonly=true\n"
+                        + "javac.source: 1.8\n"
+                        + "javac.target: 1.8\n");
+
+        File local = new File(cnf, "local");
+        for (int i = 0; i < myRepoSize; i++) {
+            String bsn = REPO_BSN_PREFIX + "." + i;
+            generateBundle(new File(local, bsn + "/" + bsn + "-1.0.0.jar"), bsn);
+        }
+    }
+
+    private static void generateBundle(File file, String bsn) throws IOException {
+        List<String> packages = new ArrayList<>();
+        for (int i = 0; i < PACKAGES_PER_BUNDLE; i++) {
+            packages.add(bsn + ".pkg" + i);
+        }
+
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", bsn);
+        attributes.putValue("Bundle-Version", "1.0.0");
+        attributes.putValue("Export-Package", String.join(";version=\"1.0.0\",", packages) + ";version=\"1.0.0\"");
+
+        file.getParentFile().mkdirs();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            for (String packageName : packages) {
+                out.putNextEntry(new JarEntry(packageName.replace('.', '/') + "/packageinfo"));
+                out.write("version 1.0.0\n".getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+    }
+
+    private void generateProject(File dir, int index, Random random) throws IOException {
+        String name = projectName(index);
+        // Package names can't have a segment starting with a digit
+        String packageName = PROJECT_PREFIX + index;
+
+        Set<String> buildpath = new LinkedHashSet<>();
+        for (int i = 0; i < myFanOut && myRepoSize > 0; i++) {
+            buildpath.add(REPO_BSN_PREFIX + "." + random.nextInt(myRepoSize) + ";version=latest");
+        }
+        for (int i = 0; i < myFanOut && index > 0; i++) {
+            buildpath.add(bsn(random.nextInt(index), 0) + ";version=latest");
+        }
+
+        StringBuilder bnd = new StringBuilder();
+        if (!buildpath.isEmpty()) {
+            bnd.append("-buildpath: \\\n\t").append(String.join(",\\\n\t", buildpath)).append("\n");
+        }
+
+        if (mySubBundles == 0) {
+            bnd.append("Export-Package: ").append(packageName).append(".api\n");
+            bnd.append("Private-Package: ").append(packageName).append(".impl\n");
+            generateSources(dir, packageName);
+        } else {
+            bnd.append("-sub: *.bnd\n");
+            for (int i = 0; i < mySubBundles; i++) {
+                String subName = "sub" + i;
+                String packagePrefix = packageName + "." + subName;
+                write(new File(dir, subName + ".bnd"),
+                        "Export-Package: " + packagePrefix + ".api\n"
+                                + "Private-Package: " + packagePrefix + ".impl\n");
+                generateSources(dir, packagePrefix);
+            }
+        }
+        write(new File(dir, "bnd.bnd"), bnd.toString());
+    }
+
+    /**
+     * The bsn of a (sub-)bundle of a generated project.
+     */
+    private String bsn(int project, int subBundle) {
+        return mySubBundles == 0 ? projectName(project) : projectName(project) + ".sub" + subBundle;
+    }
+
+    private static void generateSources(File dir, String packagePrefix) throws IOException {
+        for (String packageName : new String[]{packagePrefix + ".api", packagePrefix + ".impl"}) {
+            File packageDir = new File(dir, "src/" + packageName.replace('.', '/'));
+            write(new File(packageDir, "Component.java"),
+                    "package " + packageName + ";\n\npublic class Component {\n}\n");
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Delete a generated workspace.
+     */
+    static void delete(File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: WorkspaceGenerator <dir> [projects] [subBundles] [fanOut] [repoSize]");
+            System.exit(1);
+        }
+
+        WorkspaceGenerator generator = new WorkspaceGenerator();
+        if (args.length > 1) {
+            generator.projects(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            generator.subBundles(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            generator.fanOut(Integer.parseInt(args[3]));
+        }
+        if (args.length > 4) {
+            generator.repoSize(Integer.parseInt(args[4]));
+        }
+        generator.generate(new File(args[0]));
+    }
+}
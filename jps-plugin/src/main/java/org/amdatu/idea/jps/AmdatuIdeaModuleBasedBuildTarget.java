@@ -34,9 +34,14 @@ import org.jetbrains.jps.model.java.JpsJavaExtensionService;
 import org.jetbrains.jps.model.module.JpsModule;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.regex.Pattern;
 
 public class AmdatuIdeaModuleBasedBuildTarget extends ModuleBasedTarget<BuildRootDescriptor> {
@@ -44,8 +49,28 @@ public class AmdatuIdeaModuleBasedBuildTarget extends ModuleBasedTarget<BuildRoo
     private static final Logger LOGGER = Logger.getInstance(AmdatuIdeaModuleBasedBuildTarget.class);
     private static final Pattern INCLUDE_RESOURCE_SOURCE_DEST_SPLIT = Pattern.compile("\\s*=\\s*");
 
+    /**
+     * Bnd files of the projects of the cached workspaces, weak keys so the entries of a replaced workspace are dropped
+     */
+    private static final Map<Project, BndFiles> BND_FILES = Collections.synchronizedMap(new WeakHashMap<>());
+
     private final Workspace bndWorkspace;
 
+    /**
+     * The bnd files (bnd.bnd and the bnd files of sub-bundles) and included resources of a project.
+     */
+    private static final class BndFiles {
+        private final String fingerprint;
+        private final List<File> propertiesFiles;
+        private final List<File> includedResources;
+
+        private BndFiles(String fingerprint, List<File> propertiesFiles, List<File> includedResources) {
+            this.fingerprint = fingerprint;
+            this.propertiesFiles = propertiesFiles;
+            this.includedResources = includedResources;
+        }
+    }
+
     AmdatuIdeaModuleBasedBuildTarget(Workspace bndWorkspace, JpsModule module) {
         super(AmdatuIdeaModuleBasedTargetType.INSTANCE, module);
         this.bndWorkspace = bndWorkspace;
@@ -55,6 +80,14 @@ public class AmdatuIdeaModuleBasedBuildTarget extends ModuleBasedTarget<BuildRoo
         return bndWorkspace;
     }
 
+    /**
+     * The production output directory of the module, the classes the bundles are built from.
+     */
+    @Nullable
+    File getOutputDirectory() {
+        return JpsJavaExtensionService.getInstance().getOutputDirectory(myModule, false);
+    }
+
     @Override
     public String getId() {
         return getModule().getName();
@@ -63,7 +96,44 @@ public class AmdatuIdeaModuleBasedBuildTarget extends ModuleBasedTarget<BuildRoo
     @Override
     public Collection<BuildTarget<?>> computeDependencies(BuildTargetRegistry targetRegistry, TargetOutputIndex outputIndex) {
         BuildTargetRegistry.ModuleTargetSelector selector = BuildTargetRegistry.ModuleTargetSelector.PRODUCTION;
-        return Collections.unmodifiableCollection(targetRegistry.getModuleBasedTargets(getModule(), selector));
+        List<BuildTarget<?>> dependencies = ContainerUtil.newArrayList(targetRegistry.getModuleBasedTargets(getModule(), selector));
+
+        // Depend on the bundles of other projects used by this project instead of only on the module dependencies, so
+        // bundles of independent projects can be built in parallel
+        Set<String> projectNames = getBndDependencies();
+        for (AmdatuIdeaModuleBasedBuildTarget target : targetRegistry.getAllTargets(AmdatuIdeaModuleBasedTargetType.INSTANCE)) {
+            if (projectNames.contains(target.getId())) {
+                dependencies.add(target);
+            }
+        }
+        return Collections.unmodifiableCollection(dependencies);
+    }
+
+    /**
+     * Names of the projects of which the bundles are used to build this project, the projects on the -buildpath,
+     * -testpath and -dependson and the projects resources are included from.
+     */
+    private Set<String> getBndDependencies() {
+        Set<String> projectNames = new HashSet<>();
+        try {
+            Project project = bndWorkspace.getProject(getModule().getName());
+            for (Project dependency : project.getDependson()) {
+                projectNames.add(dependency.getName());
+            }
+
+            Path base = bndWorkspace.getBase().toPath().toAbsolutePath().normalize();
+            for (File file : getBndFiles(project).includedResources) {
+                Path path = file.toPath().toAbsolutePath().normalize();
+                if (path.startsWith(base) && path.getNameCount() > base.getNameCount()) {
+                    projectNames.add(path.getName(base.getNameCount()).toString());
+                }
+            }
+            projectNames.remove(project.getName());
+        } catch (Exception e) {
+            LOGGER.error("Failed to compute dependencies for module " + getModule().getName(), e);
+            throw new RuntimeException(e);
+        }
+        return projectNames;
     }
 
     @NotNull
@@ -72,38 +142,18 @@ public class AmdatuIdeaModuleBasedBuildTarget extends ModuleBasedTarget<BuildRoo
                                                             IgnoredFileIndex ignoredFileIndex, BuildDataPaths dataPaths) {
         List<BuildRootDescriptor> rootDescriptors = ContainerUtil.newArrayList();
 
-        try (Project project = bndWorkspace.getProject(getModule().getName())){
-            rootDescriptors.add(new BuildRootDescriptorImpl(this, project.getPropertiesFile()));
-
-            ProjectBuilder builder = project.getBuilder(null);
-            for (Builder subBuilder : builder.getSubBuilders()) {
-                // When there is just a single builder the properties file will be null, ok to ignore as this would be the
-                // project properties file which we already added
-                if (subBuilder.getPropertiesFile() != null) {
-                    rootDescriptors.add(new BuildRootDescriptorImpl(this, subBuilder.getPropertiesFile()));
-                }
+        try {
+            BndFiles bndFiles = getBndFiles(bndWorkspace.getProject(getModule().getName()));
+            for (File file : bndFiles.propertiesFiles) {
+                rootDescriptors.add(new BuildRootDescriptorImpl(this, file));
+            }
 
-                // Add included resources so the bundle will rebuild when an included resource has changed.
-                Parameters includeResource = subBuilder.getIncludeResource();
-                for (String name : includeResource.keySet()) {
-                    if (name.startsWith("{") && name.endsWith("}")) {
-                        name = name.substring(1, name.length() - 1).trim();
-                    }
-
-                    String parts[] = INCLUDE_RESOURCE_SOURCE_DEST_SPLIT.split(name);
-                    String source = parts[0];
-                    if (parts.length == 2)
-                        source = parts[1];
-
-                    if (source.startsWith("-")) {
-                        source = source.substring(1);
-                    }
-                    File file = builder.getFile(source);
-                    rootDescriptors.add(new BuildRootDescriptorImpl(this, file));
-                }
+            // Add included resources so the bundle will rebuild when an included resource has changed.
+            for (File file : bndFiles.includedResources) {
+                rootDescriptors.add(new BuildRootDescriptorImpl(this, file));
             }
 
-            File root = JpsJavaExtensionService.getInstance().getOutputDirectory(myModule, false);
+            File root = getOutputDirectory();
             if (root != null) {
                 rootDescriptors.add(new BuildRootDescriptorImpl(this, root, false));
             }
@@ -115,6 +165,56 @@ public class AmdatuIdeaModuleBasedBuildTarget extends ModuleBasedTarget<BuildRoo
         return rootDescriptors;
     }
 
+    /**
+     * Get the bnd files of a project, they're only computed again when the bnd files of the project changed.
+     */
+    private static BndFiles getBndFiles(Project project) throws Exception {
+        String fingerprint = BndWorkspaceCache.fingerprint(project);
+        BndFiles bndFiles = BND_FILES.get(project);
+        if (bndFiles != null && bndFiles.fingerprint.equals(fingerprint)) {
+            return bndFiles;
+        }
+
+        List<File> propertiesFiles = ContainerUtil.newArrayList(project.getPropertiesFile());
+        List<File> includedResources = ContainerUtil.newArrayList();
+        // Only the builder is closed, the project is owned by the cached workspace
+        try (ProjectBuilder builder = project.getBuilder(null)) {
+            for (Builder subBuilder : builder.getSubBuilders()) {
+                // When there is just a single builder the properties file will be null, ok to ignore as this would be the
+                // project properties file which we already added
+                if (subBuilder.getPropertiesFile() != null) {
+                    propertiesFiles.add(subBuilder.getPropertiesFile());
+                }
+                includedResources.addAll(getIncludedResources(builder, subBuilder));
+            }
+        }
+
+        bndFiles = new BndFiles(fingerprint, propertiesFiles, includedResources);
+        BND_FILES.put(project, bndFiles);
+        return bndFiles;
+    }
+
+    private static List<File> getIncludedResources(ProjectBuilder builder, Builder subBuilder) {
+        List<File> files = ContainerUtil.newArrayList();
+        Parameters includeResource = subBuilder.getIncludeResource();
+        for (String name : includeResource.keySet()) {
+            if (name.startsWith("{") && name.endsWith("}")) {
+                name = name.substring(1, name.length() - 1).trim();
+            }
+
+            String parts[] = INCLUDE_RESOURCE_SOURCE_DEST_SPLIT.split(name);
+            String source = parts[0];
+            if (parts.length == 2)
+                source = parts[1];
+
+            if (source.startsWith("-")) {
+                source = source.substring(1);
+            }
+            files.add(builder.getFile(source));
+        }
+        return files;
+    }
+
     @Nullable
     @Override
     public BuildRootDescriptor findRootDescriptor(String rootId, BuildRootIndex rootIndex) {
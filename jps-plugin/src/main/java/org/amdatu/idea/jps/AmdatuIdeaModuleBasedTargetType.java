@@ -59,7 +59,7 @@ public class AmdatuIdeaModuleBasedTargetType extends ModuleBasedBuildTargetType<
             targets.clear();
             File baseDirectory = JpsModelSerializationDataService.getBaseDirectory(model.getProject());
             try {
-                Workspace bndWorkspace = new Workspace(baseDirectory);
+                Workspace bndWorkspace = BndWorkspaceCache.getWorkspace(baseDirectory);
 
                 for (JpsModule module : model.getProject().getModules()) {
                     Project bndProject = bndWorkspace.getProject(module.getName());
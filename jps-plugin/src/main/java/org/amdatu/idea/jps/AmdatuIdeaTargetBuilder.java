@@ -17,6 +17,7 @@ package org.amdatu.idea.jps;
 import aQute.bnd.build.Project;
 import aQute.bnd.osgi.Processor;
 import aQute.service.reporter.Report;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
@@ -32,13 +33,27 @@ import org.jetbrains.jps.incremental.messages.ProgressMessage;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static java.lang.String.format;
 
 public class AmdatuIdeaTargetBuilder extends TargetBuilder<BuildRootDescriptor, AmdatuIdeaModuleBasedBuildTarget> {
 
+    private static final Logger LOGGER = Logger.getInstance(AmdatuIdeaTargetBuilder.class);
+
     private static final String ID = "AmdatuIdea";
+    private static final String PREVIOUS_BUNDLES = "previous-bundles";
+
+    /**
+     * Update the bundles in place when only classes changed, can be disabled with
+     * {@code -Damdatu.idea.incremental.packaging=false} in the build process VM options.
+     */
+    private static final boolean INCREMENTAL =
+            Boolean.parseBoolean(System.getProperty("amdatu.idea.incremental.packaging", "true"));
 
     AmdatuIdeaTargetBuilder() {
         super(Collections.singletonList(AmdatuIdeaModuleBasedTargetType.INSTANCE));
@@ -55,43 +70,167 @@ public class AmdatuIdeaTargetBuilder extends TargetBuilder<BuildRootDescriptor,
                       @NotNull DirtyFilesHolder<BuildRootDescriptor, AmdatuIdeaModuleBasedBuildTarget> holder,
                       @NotNull BuildOutputConsumer outputConsumer,
                       @NotNull CompileContext context) throws IOException {
-        if (JavaBuilderUtil.isForcedRecompilationAllJavaModules(context) ||
-                holder.hasDirtyFiles() || holder.hasRemovedFiles()) {
+        if (JavaBuilderUtil.isForcedRecompilationAllJavaModules(context)) {
             doBuild(target, context);
+        } else if (holder.hasDirtyFiles() || holder.hasRemovedFiles()) {
+            if (!INCREMENTAL || !updateBundles(target, holder, context)) {
+                doBuild(target, context);
+            }
+        }
+    }
+
+    /**
+     * Update the bundles built by the previous build when only files in the output directory of the module changed.
+     *
+     * @return {@code false} when a full build is needed
+     */
+    private boolean updateBundles(@NotNull AmdatuIdeaModuleBasedBuildTarget target,
+                                  @NotNull DirtyFilesHolder<BuildRootDescriptor, AmdatuIdeaModuleBasedBuildTarget> holder,
+                                  @NotNull CompileContext context) throws IOException {
+        File outputDirectory = target.getOutputDirectory();
+        List<File> changedFiles = outputDirectory != null ? getChangedOutputFiles(outputDirectory, holder) : null;
+        if (changedFiles == null) {
+            return false;
+        }
+
+        int updated;
+        try {
+            Project project = target.getBndWorkspace().getProject(target.getModule().getName());
+            updated = new IncrementalPackager(project, outputDirectory).update(changedFiles);
+            if (updated == IncrementalPackager.FULL_BUILD) {
+                return false;
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Incremental update of the bundles of " + target.getModule().getName() + " failed", e);
+            return false;
         }
+
+        if (updated > 0) {
+            context.processMessage(new ProgressMessage("Updated bundles for: " + target.getModule().getName()));
+            context.processMessage(DoneSomethingNotification.INSTANCE);
+        }
+        return true;
+    }
+
+    /**
+     * The changed files in the output directory of the module.
+     *
+     * @return {@code null} when files were removed or other roots of the target changed, a full build is needed then
+     */
+    static List<File> getChangedOutputFiles(
+            @NotNull File outputDirectory,
+            @NotNull DirtyFilesHolder<BuildRootDescriptor, AmdatuIdeaModuleBasedBuildTarget> holder)
+            throws IOException {
+        if (holder.hasRemovedFiles()) {
+            return null;
+        }
+
+        List<File> changedFiles = new ArrayList<>();
+        boolean[] otherChanges = {false};
+        holder.processDirtyFiles((t, file, root) -> {
+            if (FileUtil.filesEqual(root.getRootFile(), outputDirectory)) {
+                changedFiles.add(file);
+            } else {
+                // The bnd files or included resources changed
+                otherChanges[0] = true;
+            }
+            return !otherChanges[0];
+        });
+        return otherChanges[0] || changedFiles.isEmpty() ? null : changedFiles;
     }
 
     private void doBuild(@NotNull AmdatuIdeaModuleBasedBuildTarget target, @NotNull CompileContext context) {
 
         context.processMessage(new ProgressMessage("Running bnd build for: " + target.getModule().getName()));
 
+        // The bundles of the previous build are kept until the new bundles are built
+        File previousDirectory = new File(
+                context.getProjectDescriptor().dataManager.getDataPaths().getTargetDataRoot(target), PREVIOUS_BUNDLES);
+        int changed;
         try {
+            // The project is owned by the cached workspace, clear the messages of the previous build instead of
+            // closing it
+            Project project = target.getBndWorkspace().getProject(target.getModule().getName());
+            Map<File, File> previousBundles = savePreviousBundles(project, previousDirectory);
+
             for (File outputRoot : target.getOutputRoots(context)) {
                 if (!FileUtil.delete(outputRoot)) {
                     throw new RuntimeException("Failed to delete: '" + outputRoot + "'.");
                 }
             }
 
+            project.clear();
+            File[] bundles = project.build();
+            changed = restoreUnchangedBundles(bundles, previousBundles);
 
-            try (Project project = target.getBndWorkspace().getProject(target.getModule().getName())) {
-                project.build();
-
-                context.processMessage(new ProgressMessage(format("Building project: %s", project.getName())));
-                project.getWarnings().stream()
-                        .map(message -> toCompilerMessage(BuildMessage.Kind.WARNING, message, project))
-                        .forEach(context::processMessage);
-
-                project.getErrors().stream()
-                        .map(message -> toCompilerMessage(BuildMessage.Kind.ERROR, message, project))
-                        .forEach(context::processMessage);
-            }
+            context.processMessage(new ProgressMessage(format("Building project: %s", project.getName())));
+            project.getWarnings().stream()
+                    .map(message -> toCompilerMessage(BuildMessage.Kind.WARNING, message, project))
+                    .forEach(context::processMessage);
 
+            project.getErrors().stream()
+                    .map(message -> toCompilerMessage(BuildMessage.Kind.ERROR, message, project))
+                    .forEach(context::processMessage);
         } catch (Exception e) {
             context.processMessage(new CompilerMessage(AmdatuIdeaTargetBuilder.ID, e));
             return;
+        } finally {
+            FileUtil.delete(previousDirectory);
+        }
+
+        if (changed > 0) {
+            context.processMessage(DoneSomethingNotification.INSTANCE);
+        }
+    }
+
+    /**
+     * Move the bundles of the previous build out of the way before they're deleted.
+     *
+     * @return the saved bundles by the location they were built at
+     */
+    private static Map<File, File> savePreviousBundles(Project project, File previousDirectory) throws Exception {
+        Map<File, File> previousBundles = new HashMap<>();
+        FileUtil.delete(previousDirectory);
+        File[] bundles = project.getBuildFiles(false);
+        if (bundles == null) {
+            return previousBundles;
         }
 
-        context.processMessage(DoneSomethingNotification.INSTANCE);
+        for (File bundle : bundles) {
+            if (bundle.isFile()) {
+                File saved = new File(previousDirectory, previousBundles.size() + "-" + bundle.getName());
+                long lastModified = bundle.lastModified();
+                FileUtil.createParentDirs(saved);
+                FileUtil.rename(bundle, saved);
+                saved.setLastModified(lastModified);
+                previousBundles.put(bundle.getAbsoluteFile(), saved);
+            }
+        }
+        return previousBundles;
+    }
+
+    /**
+     * Put back the bundles of the previous build when the new bundles have the same content (ignoring the
+     * Bnd-LastModified header), their timestamps stay the same and bundles depending on them aren't rebuilt.
+     *
+     * @return the number of bundles that were added, changed or removed
+     */
+    private static int restoreUnchangedBundles(File[] bundles, Map<File, File> previousBundles) throws IOException {
+        if (bundles == null) {
+            return previousBundles.size();
+        }
+
+        int restored = 0;
+        for (File bundle : bundles) {
+            File previous = previousBundles.get(bundle.getAbsoluteFile());
+            if (previous != null && BundleDigest.sameContent(previous, bundle)) {
+                long lastModified = previous.lastModified();
+                FileUtil.rename(previous, bundle);
+                bundle.setLastModified(lastModified);
+                restored++;
+            }
+        }
+        return bundles.length + previousBundles.size() - 2 * restored;
     }
 
     private CompilerMessage toCompilerMessage(BuildMessage.Kind kind, String message, Processor processor) {
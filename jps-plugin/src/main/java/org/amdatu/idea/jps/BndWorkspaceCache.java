@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.jps;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.build.Workspace;
+import aQute.bnd.service.Refreshable;
+
+/**
+ * Bnd workspaces shared by the builds in a build process.
+ *
+ * <p>The build process is kept alive between builds, a workspace is created once and reused by the next builds as long
+ * as the workspace configuration (the {@code cnf/build.bnd}, {@code cnf/ext} and included files) is unchanged. The
+ * repositories are refreshed at the start of each build. Projects of which the bnd files changed are refreshed
+ * together with the projects depending on them, the other projects are reused as is. All projects are refreshed when
+ * projects were added or removed.
+ */
+final class BndWorkspaceCache {
+
+    private static final Logger LOGGER = Logger.getInstance(BndWorkspaceCache.class);
+
+    private static final Map<File, BndWorkspaceCache> WORKSPACES = new HashMap<>();
+
+    private final Workspace workspace;
+    private final String fingerprint;
+    private final Map<String, String> projectFingerprints = new HashMap<>();
+
+    private BndWorkspaceCache(Workspace workspace) throws Exception {
+        this.workspace = workspace;
+        this.fingerprint = fingerprint(workspace);
+        for (Project project : workspace.getAllProjects()) {
+            projectFingerprints.put(project.getName(), fingerprint(project));
+        }
+    }
+
+    /**
+     * Get the workspace of a project for the next build.
+     */
+    @NotNull
+    static Workspace getWorkspace(@NotNull File baseDirectory) throws Exception {
+        synchronized (WORKSPACES) {
+            BndWorkspaceCache cache = WORKSPACES.get(baseDirectory);
+            if (cache != null && !cache.fingerprint.equals(fingerprint(cache.workspace))) {
+                LOGGER.info("Workspace configuration changed, creating a new workspace for " + baseDirectory);
+                WORKSPACES.remove(baseDirectory);
+                cache.workspace.close();
+                cache = null;
+            }
+
+            if (cache == null) {
+                cache = new BndWorkspaceCache(new Workspace(baseDirectory));
+                WORKSPACES.put(baseDirectory, cache);
+            } else {
+                cache.refresh();
+            }
+            return cache.workspace;
+        }
+    }
+
+    /**
+     * Refresh the repositories, their content can change between builds (e.g. a bundle released to a local
+     * repository), and the projects of which the bnd files changed.
+     */
+    private void refresh() throws Exception {
+        for (Refreshable repository : workspace.getPlugins(Refreshable.class)) {
+            try {
+                repository.refresh();
+            } catch (Exception e) {
+                LOGGER.warn("Failed to refresh repository " + repository, e);
+            }
+        }
+        refreshChangedProjects();
+    }
+
+    private void refreshChangedProjects() throws Exception {
+        Collection<Project> projects = workspace.getAllProjects();
+        Set<String> removed = new HashSet<>(projectFingerprints.keySet());
+        Set<String> added = new HashSet<>();
+        Set<Project> changed = new HashSet<>();
+        for (Project project : projects) {
+            String projectFingerprint = fingerprint(project);
+            String previous = projectFingerprints.put(project.getName(), projectFingerprint);
+            removed.remove(project.getName());
+            if (previous == null) {
+                added.add(project.getName());
+            } else if (!previous.equals(projectFingerprint)) {
+                changed.add(project);
+            }
+        }
+        projectFingerprints.keySet().removeAll(removed);
+
+        Set<Project> toRefresh;
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            // The projects depending on an added project aren't known yet, they failed to resolve it before
+            LOGGER.info("Refreshing all projects, projects added " + added + " and removed " + removed);
+            toRefresh = new HashSet<>(projects);
+        } else if (!changed.isEmpty()) {
+            // Projects depending on a changed project use its bundles, e.g. a sub-bundle that was added or removed
+            toRefresh = new HashSet<>(changed);
+            boolean dependentAdded = true;
+            while (dependentAdded) {
+                dependentAdded = false;
+                for (Project project : projects) {
+                    if (!toRefresh.contains(project) && !Collections.disjoint(project.getDependson(), toRefresh)) {
+                        toRefresh.add(project);
+                        dependentAdded = true;
+                    }
+                }
+            }
+            LOGGER.info("Refreshing " + toRefresh.size() + " projects, bnd files changed in " + changed);
+        } else {
+            return;
+        }
+
+        for (Project project : toRefresh) {
+            project.forceRefresh();
+        }
+    }
+
+    private static String fingerprint(Workspace workspace) {
+        List<File> files = new ArrayList<>();
+        files.add(workspace.getPropertiesFile());
+        File[] extensions = new File(workspace.getBuildDir(), "ext").listFiles();
+        if (extensions != null) {
+            Collections.addAll(files, extensions);
+        }
+        if (workspace.getIncluded() != null) {
+            files.addAll(workspace.getIncluded());
+        }
+        return fingerprint(files);
+    }
+
+    /**
+     * Fingerprint of the bnd files of a project, including the sub-bundle bnd files of the project.
+     */
+    static String fingerprint(Project project) {
+        List<File> files = new ArrayList<>();
+        files.add(project.getPropertiesFile());
+        File[] bndFiles = project.getBase().listFiles((dir, name) -> name.endsWith(".bnd"));
+        if (bndFiles != null) {
+            Collections.addAll(files, bndFiles);
+        }
+        if (project.getIncluded() != null) {
+            files.addAll(project.getIncluded());
+        }
+        return fingerprint(files);
+    }
+
+    private static String fingerprint(List<File> files) {
+        Set<String> stamps = new TreeSet<>();
+        for (File file : files) {
+            if (file != null) {
+                stamps.add(file.getAbsolutePath() + ':' + file.lastModified() + ':' + file.length());
+            }
+        }
+        return String.join("|", stamps);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.jps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import aQute.bnd.osgi.Constants;
+import aQute.lib.hex.Hex;
+
+/**
+ * Digest of the content of a bundle, the names and content of its entries. The {@code Bnd-LastModified} header and
+ * the timestamps of the entries are ignored, building a bundle from the same input twice results in the same digest.
+ */
+final class BundleDigest {
+
+    private BundleDigest() {
+    }
+
+    static boolean sameContent(File bundle, File other) {
+        try {
+            return bundle.isFile() && other.isFile() && digest(bundle).equals(digest(other));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static String digest(File bundle) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        byte[] buffer = new byte[8192];
+        try (ZipFile zip = new ZipFile(bundle)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                digest.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                try (InputStream in = zip.getInputStream(entry)) {
+                    if (JarFile.MANIFEST_NAME.equals(entry.getName())) {
+                        digest.update(manifest(in).getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        int read;
+                        while ((read = in.read(buffer)) > 0) {
+                            digest.update(buffer, 0, read);
+                        }
+                    }
+                }
+            }
+        }
+        return Hex.toHexString(digest.digest());
+    }
+
+    /**
+     * The headers of a manifest in a fixed order, without {@code Bnd-LastModified}.
+     */
+    private static String manifest(InputStream in) throws IOException {
+        Manifest manifest = new Manifest(in);
+        StringBuilder sb = new StringBuilder();
+        Attributes main = (Attributes) manifest.getMainAttributes().clone();
+        main.remove(new Attributes.Name(Constants.BND_LASTMODIFIED));
+        append(sb, main);
+        for (Map.Entry<String, Attributes> entry : new TreeMap<>(manifest.getEntries()).entrySet()) {
+            sb.append("Name: ").append(entry.getKey()).append('\n');
+            append(sb, entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, Attributes attributes) {
+        Map<String, String> sorted = new TreeMap<>();
+        attributes.forEach((name, value) -> sorted.put(name.toString(), value.toString()));
+        sorted.forEach((name, value) -> sb.append(name).append(": ").append(value).append('\n'));
+        sb.append('\n');
+    }
+}
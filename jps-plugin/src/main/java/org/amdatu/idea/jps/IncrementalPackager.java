@@ -0,0 +1,300 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.jps;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.header.Parameters;
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Annotation;
+import aQute.bnd.osgi.ClassDataCollector;
+import aQute.bnd.osgi.Clazz;
+import aQute.bnd.osgi.Constants;
+import aQute.bnd.osgi.Descriptors;
+import aQute.bnd.osgi.FileResource;
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Resource;
+
+/**
+ * Updates the bundles of a project in place when only files in the output directory of the module changed.
+ *
+ * <p>The changed files replace the entries in the bundles built by the previous build and the manifests of these
+ * bundles are reused. This is only done as long as the manifest calculated by bnd would stay the same: a changed class
+ * must refer to the same packages as before and a new class can only refer to packages the bundle contains or
+ * imports. Changes to exported packages, package versions, classes with annotations bnd generates headers or resources
+ * from, files in packages that aren't in any of the bundles and removed files require a full build.
+ */
+final class IncrementalPackager {
+
+    static final int FULL_BUILD = -1;
+
+    private static final Logger LOGGER = Logger.getInstance(IncrementalPackager.class);
+
+    private static final String CLASS_EXT = ".class";
+    private static final String SOURCES_PREFIX = "OSGI-OPT/src/";
+    private static final String[] ANNOTATION_PACKAGES = {"org.osgi.service.component.annotations",
+            "org.osgi.service.metatype.annotations", "org.osgi.annotation", "aQute.bnd.annotation"};
+
+    private final Project project;
+    private final File outputDirectory;
+
+    IncrementalPackager(Project project, File outputDirectory) {
+        this.project = project;
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Update the bundles with the changed files in the output directory, bundles of which the content doesn't change
+     * are kept as is.
+     *
+     * @return the number of bundles that changed or {@link #FULL_BUILD} when the bundles can't be updated
+     * incrementally, the bundles are unchanged in that case
+     */
+    int update(Collection<File> changedFiles) throws Exception {
+        File[] bundles = project.getBuildFiles(false);
+        if (bundles == null || bundles.length == 0) {
+            return FULL_BUILD;
+        }
+
+        Map<String, File> entries = new LinkedHashMap<>();
+        for (File file : changedFiles) {
+            String path = FileUtil.getRelativePath(outputDirectory, file);
+            if (path == null || !file.isFile()) {
+                return FULL_BUILD;
+            }
+            path = FileUtil.toSystemIndependentName(path);
+            if (path.endsWith("package-info" + CLASS_EXT) || path.endsWith("/packageinfo")) {
+                // Package versions
+                return FULL_BUILD;
+            }
+            entries.put(path, file);
+        }
+
+        // Bundles are only replaced once all of them can be updated
+        Map<File, File> updated = new LinkedHashMap<>();
+        Set<String> claimed = new HashSet<>();
+        try {
+            try (Analyzer analyzer = new Analyzer()) {
+                for (File bundle : bundles) {
+                    File tmp = new File(bundle.getPath() + ".tmp");
+                    Boolean result = update(analyzer, bundle, entries, claimed, tmp);
+                    if (result == null) {
+                        return FULL_BUILD;
+                    }
+                    if (result && BundleDigest.sameContent(bundle, tmp)) {
+                        FileUtil.delete(tmp);
+                    } else if (result) {
+                        updated.put(bundle, tmp);
+                    }
+                }
+            }
+            if (!claimed.containsAll(entries.keySet())) {
+                // A package that isn't in any of the bundles, bnd may add it to a bundle
+                return FULL_BUILD;
+            }
+
+            for (Map.Entry<File, File> entry : updated.entrySet()) {
+                Files.move(entry.getValue().toPath(), entry.getKey().toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            LOGGER.info("Updated " + updated.size() + " bundles of " + project.getName() + " with " + entries.size()
+                    + " changed files");
+            return updated.size();
+        } finally {
+            for (File tmp : updated.values()) {
+                FileUtil.delete(tmp);
+            }
+        }
+    }
+
+    /**
+     * The entries in a package of the bundle are added to {@code claimed}.
+     *
+     * @return {@code true} when the bundle is written to the temp file, {@code false} when it doesn't contain any of
+     * the entries, {@code null} when a full build is needed
+     */
+    private Boolean update(Analyzer analyzer, File bundle, Map<String, File> entries, Set<String> claimed, File tmp)
+            throws Exception {
+        Map<String, File> replacements = new LinkedHashMap<>();
+        try (Jar jar = new Jar(bundle)) {
+            Manifest manifest = jar.getManifest();
+            if (manifest == null) {
+                return null;
+            }
+            Parameters exports = new Parameters(manifest.getMainAttributes().getValue(Constants.EXPORT_PACKAGE));
+            Parameters imports = new Parameters(manifest.getMainAttributes().getValue(Constants.IMPORT_PACKAGE));
+            Map<String, Map<String, Resource>> directories = jar.getDirectories();
+
+            for (Map.Entry<String, File> entry : entries.entrySet()) {
+                String path = entry.getKey();
+                int index = path.lastIndexOf('/');
+                String directory = index < 0 ? "" : path.substring(0, index);
+                Resource existing = jar.getResource(path);
+                if (existing == null && !directories.containsKey(directory)) {
+                    // Not a package of this bundle
+                    continue;
+                }
+
+                claimed.add(path);
+                Resource resource = new FileResource(entry.getValue());
+                replacements.put(path, entry.getValue());
+                if (path.endsWith(CLASS_EXT)) {
+                    if (!addSource(jar, path, replacements)) {
+                        return null;
+                    }
+
+                    Set<Descriptors.PackageRef> referred = getReferred(analyzer, path, resource);
+                    if (referred == null) {
+                        return null;
+                    }
+                    if (existing != null) {
+                        if (!referred.equals(getReferred(analyzer, path, existing))) {
+                            return null;
+                        }
+                    } else {
+                        if (exports.containsKey(directory.replace('/', '.'))) {
+                            return null;
+                        }
+                        for (Descriptors.PackageRef packageRef : referred) {
+                            if (!packageRef.isJava() && !directories.containsKey(packageRef.getBinary())
+                                    && !imports.containsKey(packageRef.getFQN())) {
+                                return null;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        if (replacements.isEmpty()) {
+            return false;
+        }
+        write(bundle, replacements, tmp);
+        return true;
+    }
+
+    /**
+     * Add the source of a class when the bundle contains the sources of its package ({@code -sources}).
+     *
+     * @return {@code false} when the bundle contains the source but it can't be found in the source path
+     */
+    private boolean addSource(Jar jar, String classPath, Map<String, File> replacements) throws Exception {
+        String sourcePath = classPath.substring(0, classPath.length() - CLASS_EXT.length());
+        int index = sourcePath.indexOf('$', sourcePath.lastIndexOf('/') + 1);
+        if (index > 0) {
+            sourcePath = sourcePath.substring(0, index);
+        }
+        sourcePath += ".java";
+        String sourceDirectory = sourcePath.substring(0, Math.max(sourcePath.lastIndexOf('/'), 0));
+        if (jar.getResource(SOURCES_PREFIX + sourcePath) == null
+                && !jar.getDirectories().containsKey(SOURCES_PREFIX + sourceDirectory)) {
+            return true;
+        }
+
+        for (File sourceRoot : project.getSourcePath()) {
+            File source = new File(sourceRoot, sourcePath);
+            if (source.isFile()) {
+                replacements.put(SOURCES_PREFIX + sourcePath, source);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy the bundle, the entries are copied as is except for the replaced entries, new entries are added at the end.
+     */
+    private static void write(File bundle, Map<String, File> replacements, File tmp) throws IOException {
+        Map<String, File> added = new LinkedHashMap<>(replacements);
+        try (ZipFile zip = new ZipFile(bundle);
+             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tmp))) {
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                File replacement = added.remove(zipEntry.getName());
+                if (replacement != null) {
+                    ZipEntry entry = new ZipEntry(zipEntry.getName());
+                    entry.setTime(replacement.lastModified());
+                    out.putNextEntry(entry);
+                    Files.copy(replacement.toPath(), out);
+                } else {
+                    ZipEntry entry = new ZipEntry(zipEntry);
+                    entry.setCompressedSize(-1);
+                    out.putNextEntry(entry);
+                    try (InputStream in = zip.getInputStream(zipEntry)) {
+                        FileUtil.copy(in, out);
+                    }
+                }
+                out.closeEntry();
+            }
+
+            for (Map.Entry<String, File> replacement : added.entrySet()) {
+                ZipEntry entry = new ZipEntry(replacement.getKey());
+                entry.setTime(replacement.getValue().lastModified());
+                out.putNextEntry(entry);
+                Files.copy(replacement.getValue().toPath(), out);
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * The packages a class refers to, {@code null} when bnd generates headers or resources from its annotations.
+     */
+    private static Set<Descriptors.PackageRef> getReferred(Analyzer analyzer, String path, Resource resource)
+            throws Exception {
+        Clazz clazz = new Clazz(analyzer, path, resource);
+        boolean[] annotated = {false};
+        // Annotations with class retention aren't in the referred packages
+        clazz.parseClassFileWithCollector(new ClassDataCollector() {
+            @Override
+            public void annotation(Annotation annotation) {
+                annotated[0] |= isAnnotationPackage(annotation.getName().getPackageRef());
+            }
+        });
+        Set<Descriptors.PackageRef> referred = clazz.getReferred();
+        if (annotated[0] || referred.stream().anyMatch(IncrementalPackager::isAnnotationPackage)) {
+            return null;
+        }
+        return referred;
+    }
+
+    private static boolean isAnnotationPackage(Descriptors.PackageRef packageRef) {
+        for (String annotationPackage : ANNOTATION_PACKAGES) {
+            if (packageRef.getFQN().startsWith(annotationPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.jps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.builders.BuildRootDescriptor;
+import org.jetbrains.jps.builders.BuildTarget;
+import org.jetbrains.jps.builders.DirtyFilesHolder;
+import org.jetbrains.jps.builders.FileProcessor;
+import org.junit.Test;
+
+public class AmdatuIdeaTargetBuilderTest {
+
+    private final File outputDirectory = new File("p/bin");
+    private final File projectDirectory = new File("p");
+
+    @Test
+    public void changedClasses() throws IOException {
+        File first = new File(outputDirectory, "p/A.class");
+        File second = new File(outputDirectory, "p/B.class");
+
+        assertEquals(Arrays.asList(first, second), AmdatuIdeaTargetBuilder.getChangedOutputFiles(outputDirectory,
+                holder(Collections.emptyList(), first, outputDirectory, second, outputDirectory)));
+    }
+
+    @Test
+    public void changedBndFile() throws IOException {
+        assertNull(AmdatuIdeaTargetBuilder.getChangedOutputFiles(outputDirectory,
+                holder(Collections.emptyList(), new File(outputDirectory, "p/A.class"), outputDirectory,
+                        new File(projectDirectory, "bnd.bnd"), projectDirectory)));
+    }
+
+    @Test
+    public void removedFile() throws IOException {
+        assertNull(AmdatuIdeaTargetBuilder.getChangedOutputFiles(outputDirectory,
+                holder(Collections.singletonList(new File(outputDirectory, "p/B.class").getPath()),
+                        new File(outputDirectory, "p/A.class"), outputDirectory)));
+    }
+
+    @Test
+    public void noChangedFiles() throws IOException {
+        assertNull(AmdatuIdeaTargetBuilder.getChangedOutputFiles(outputDirectory, holder(Collections.emptyList())));
+    }
+
+    /**
+     * Dirty files holder of a target with the removed files and pairs of changed files and their roots.
+     */
+    private static DirtyFilesHolder<BuildRootDescriptor, AmdatuIdeaModuleBasedBuildTarget> holder(
+            List<String> removedFiles, File... changedFilesAndRoots) {
+        Map<File, BuildRootDescriptor> changedFiles = new LinkedHashMap<>();
+        for (int i = 0; i < changedFilesAndRoots.length; i += 2) {
+            changedFiles.put(changedFilesAndRoots[i], root(changedFilesAndRoots[i + 1]));
+        }
+
+        return new DirtyFilesHolder<BuildRootDescriptor, AmdatuIdeaModuleBasedBuildTarget>() {
+            @Override
+            public void processDirtyFiles(
+                    @NotNull FileProcessor<BuildRootDescriptor, AmdatuIdeaModuleBasedBuildTarget> processor)
+                    throws IOException {
+                for (Map.Entry<File, BuildRootDescriptor> entry : changedFiles.entrySet()) {
+                    if (!processor.apply(null, entry.getKey(), entry.getValue())) {
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasDirtyFiles() {
+                return !changedFiles.isEmpty();
+            }
+
+            @Override
+            public boolean hasRemovedFiles() {
+                return !removedFiles.isEmpty();
+            }
+
+            @NotNull
+            @Override
+            public Collection<String> getRemovedFiles(@NotNull AmdatuIdeaModuleBasedBuildTarget target) {
+                return removedFiles;
+            }
+        };
+    }
+
+    private static BuildRootDescriptor root(File rootFile) {
+        return new BuildRootDescriptor() {
+            @Override
+            public String getRootId() {
+                return rootFile.getPath();
+            }
+
+            @Override
+            public File getRootFile() {
+                return rootFile;
+            }
+
+            @Override
+            public BuildTarget<?> getTarget() {
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.jps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.build.Workspace;
+import aQute.bnd.osgi.Jar;
+
+/**
+ * Builds a bundle with an exported ({@code p.api}) and a private ({@code p.impl}) package and updates it with changed
+ * classes.
+ */
+public class IncrementalPackagerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Workspace workspace;
+    private Project project;
+    private File sourceDirectory;
+    private File outputDirectory;
+    private File bundle;
+
+    @Before
+    public void setUp() throws Exception {
+        File base = temporaryFolder.getRoot();
+        write(new File(base, "cnf/build.bnd"), "");
+        write(new File(base, "p/bnd.bnd"), "Export-Package: p.api\nPrivate-Package: p.impl\n-sources: true\n");
+
+        workspace = new Workspace(base);
+        project = workspace.getProject("p");
+        sourceDirectory = new File(project.getBase(), "src");
+        outputDirectory = project.getSrcOutput();
+
+        writeSource("p/api/Api.java", "package p.api; public interface Api { String get(); }");
+        writeSource("p/impl/Impl.java", "package p.impl; public class Impl implements p.api.Api { "
+                + "public String get() { return \"a\"; } }");
+        compile();
+        project.build();
+        assertTrue(project.getErrors().toString(), project.isOk());
+        bundle = project.getBuildFiles(false)[0];
+    }
+
+    @After
+    public void tearDown() {
+        workspace.close();
+    }
+
+    @Test
+    public void changedClassWithSameReferences() throws Exception {
+        writeSource("p/impl/Impl.java", "package p.impl; public class Impl implements p.api.Api { "
+                + "public String get() { return \"b\"; } }");
+
+        assertEquals(1, update("p/impl/Impl.class"));
+        try (Jar jar = new Jar(bundle)) {
+            assertEquals(new File(outputDirectory, "p/impl/Impl.class").length(),
+                    jar.getResource("p/impl/Impl.class").size());
+            assertNotNull(jar.getResource("OSGI-OPT/src/p/impl/Impl.java"));
+        }
+    }
+
+    @Test
+    public void unchangedClass() throws Exception {
+        assertEquals(0, update("p/impl/Impl.class"));
+    }
+
+    @Test
+    public void newClassInPrivatePackage() throws Exception {
+        writeSource("p/impl/Helper.java", "package p.impl; class Helper { java.util.List<String> list; }");
+
+        assertEquals(1, update("p/impl/Helper.class"));
+        try (Jar jar = new Jar(bundle)) {
+            assertNotNull(jar.getResource("p/impl/Helper.class"));
+            assertNotNull(jar.getResource("OSGI-OPT/src/p/impl/Helper.java"));
+        }
+    }
+
+    @Test
+    public void changedClassWithDifferentReferences() throws Exception {
+        writeSource("p/impl/Impl.java", "package p.impl; public class Impl implements p.api.Api { "
+                + "public String get() { return java.util.Collections.emptyList().toString(); } }");
+
+        assertFullBuild("p/impl/Impl.class");
+    }
+
+    @Test
+    public void newClassInExportedPackage() throws Exception {
+        writeSource("p/api/Other.java", "package p.api; public interface Other { }");
+
+        assertFullBuild("p/api/Other.class");
+    }
+
+    @Test
+    public void newClassReferringToPackageNotImported() throws Exception {
+        writeSource("p/impl/Helper.java", "package p.impl; class Helper { javax.swing.JComponent component; }");
+
+        assertFullBuild("p/impl/Helper.class");
+    }
+
+    @Test
+    public void newClassInPackageNotInBundle() throws Exception {
+        writeSource("p/other/Other.java", "package p.other; public class Other { }");
+
+        assertFullBuild("p/other/Other.class");
+    }
+
+    @Test
+    public void packageInfo() throws Exception {
+        writeSource("p/api/package-info.java", "@Deprecated package p.api;");
+
+        assertFullBuild("p/api/package-info.class");
+    }
+
+    @Test
+    public void packageinfoFile() throws Exception {
+        write(new File(outputDirectory, "p/api/packageinfo"), "version 1.1.0");
+
+        assertFullBuild("p/api/packageinfo");
+    }
+
+    @Test
+    public void componentAnnotation() throws Exception {
+        writeSource("p/impl/Impl.java", "package p.impl; "
+                + "@org.osgi.service.component.annotations.Component public class Impl implements p.api.Api { "
+                + "public String get() { return \"a\"; } }");
+
+        assertFullBuild("p/impl/Impl.class");
+    }
+
+    @Test
+    public void removedFile() throws Exception {
+        Files.delete(new File(sourceDirectory, "p/impl/Impl.java").toPath());
+        Files.delete(new File(outputDirectory, "p/impl/Impl.class").toPath());
+
+        assertFullBuild("p/impl/Impl.class");
+    }
+
+    @Test
+    public void fileOutsideOutputDirectory() throws Exception {
+        String digest = BundleDigest.digest(bundle);
+
+        assertEquals(IncrementalPackager.FULL_BUILD, new IncrementalPackager(project, outputDirectory)
+                .update(Collections.singletonList(project.getPropertiesFile())));
+        assertEquals(digest, BundleDigest.digest(bundle));
+    }
+
+    private int update(String... paths) throws Exception {
+        compile();
+        List<File> changedFiles = new ArrayList<>();
+        for (String path : paths) {
+            changedFiles.add(new File(outputDirectory, path));
+        }
+        return new IncrementalPackager(project, outputDirectory).update(changedFiles);
+    }
+
+    /**
+     * The update falls back to a full build and leaves the bundle as is.
+     */
+    private void assertFullBuild(String... paths) throws Exception {
+        String digest = BundleDigest.digest(bundle);
+        assertEquals(IncrementalPackager.FULL_BUILD, update(paths));
+        assertEquals(digest, BundleDigest.digest(bundle));
+    }
+
+    private void writeSource(String path, String source) throws IOException {
+        write(new File(sourceDirectory, path), source);
+    }
+
+    private void compile() throws IOException {
+        Files.createDirectories(outputDirectory.toPath());
+        List<String> arguments = new ArrayList<>(Arrays.asList("-source", "1.8", "-target", "1.8", "-nowarn",
+                "-classpath", System.getProperty("java.class.path"), "-d", outputDirectory.getPath()));
+        Files.walk(sourceDirectory.toPath())
+                .filter(path -> path.toString().endsWith(".java"))
+                .forEach(path -> arguments.add(path.toString()));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, arguments.toArray(new String[0])));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
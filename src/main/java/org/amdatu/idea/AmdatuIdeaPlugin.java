@@ -14,6 +14,13 @@
 
 package org.amdatu.idea;
 
+import java.util.concurrent.CompletableFuture;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.util.ThrowableComputable;
+
 import aQute.bnd.build.Workspace;
 
 public interface AmdatuIdeaPlugin {
@@ -21,12 +28,48 @@ public interface AmdatuIdeaPlugin {
     boolean isBndWorkspace();
 
     /**
-     * Get the bnd workspace for a project
+     * Get the bnd workspace for a project, waits for the workspace to be created when that hasn't been done yet. Use
+     * {@link #getWorkspaceAsync()} or {@link #getWorkspaceIfReady()} in code that shouldn't block.
      *
      * @return The bnd {@link Workspace} for the project
      */
     Workspace getWorkspace();
 
+    /**
+     * Get the bnd workspace for a project, starts creating the workspace when that hasn't been done yet.
+     *
+     * @return future completed with the bnd {@link Workspace} once it's created, completed with {@code null} if the
+     * project isn't a bnd workspace or the workspace could not be created
+     */
+    @NotNull
+    CompletableFuture<Workspace> getWorkspaceAsync();
+
+    /**
+     * @return the bnd {@link Workspace} for the project or {@code null} if it's not (yet) available
+     */
+    @Nullable
+    Workspace getWorkspaceIfReady();
+
+    /**
+     * Run the computable with shared read access to the workspace, multiple readers can access the workspace
+     * concurrently. Blocks while the workspace is being refreshed.
+     */
+    <T, E extends Throwable> T runRead(@NotNull ThrowableComputable<T, E> computable) throws E;
+
+    /**
+     * Run the computable with exclusive access to the workspace, should only be used for short modifications of the
+     * workspace.
+     */
+    <T, E extends Throwable> T runWrite(@NotNull ThrowableComputable<T, E> computable) throws E;
+
+    /**
+     * Run the computable with shared read access to the workspace without waiting for a running refresh. Intended for
+     * callers that should never block (e.g. on the EDT).
+     *
+     * @return the result of the computable or {@code null} if the workspace is being refreshed
+     */
+    @Nullable
+    <T, E extends Throwable> T tryRunRead(@NotNull ThrowableComputable<T, E> computable) throws E;
 
     void refreshWorkspace(boolean refreshExportedContentJars);
 
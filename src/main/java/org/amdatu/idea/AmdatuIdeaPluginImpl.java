@@ -16,24 +16,37 @@ package org.amdatu.idea;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import org.amdatu.idea.imp.BndProjectImporter;
+import org.amdatu.idea.preferences.AmdatuIdeaPreferences;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
 import com.intellij.dvcs.repo.Repository;
 import com.intellij.dvcs.repo.VcsRepositoryManager;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.module.Module;
 import com.intellij.openapi.progress.ProgressIndicator;
-import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vcs.BranchChangeListener;
-import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.openapi.vfs.newvfs.BulkFileListener;
 import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
@@ -44,8 +57,6 @@ import com.intellij.util.messages.MessageBusConnection;
 import aQute.bnd.build.Workspace;
 import aQute.bnd.header.Attrs;
 import aQute.bnd.osgi.Constants;
-import aQute.bnd.repository.maven.provider.MavenBndRepository;
-import aQute.bnd.service.Refreshable;
 import aQute.bnd.service.RepositoryPlugin;
 import aQute.service.reporter.Report;
 
@@ -53,11 +64,16 @@ public class AmdatuIdeaPluginImpl implements AmdatuIdeaPlugin {
 
     private static final Logger LOG = Logger.getInstance(AmdatuIdeaPluginImpl.class);
 
-    private final Object workspaceLock = new Object();
+    private final WorkspaceLock myWorkspaceLock = new WorkspaceLock();
     private final Project myProject;
-    private Workspace myWorkspace;
+    private volatile Workspace myWorkspace;
+    private final CompletableFuture<Workspace> myWorkspaceFuture = new CompletableFuture<>();
+    private final AtomicBoolean myWorkspaceCreationStarted = new AtomicBoolean();
     private List<Report.Location> myWorkspaceErrors;
     private final AmdatuIdeaNotificationService myNotificationService;
+    private final WorkspaceRefreshEngine myRefreshEngine = new WorkspaceRefreshEngine();
+    private final BndPathIndex myPathIndex = new BndPathIndex();
+    private final RefreshScheduler myRefreshScheduler;
     private PackageInfoService myPackageInfoService;
 
     static {
@@ -68,6 +84,7 @@ public class AmdatuIdeaPluginImpl implements AmdatuIdeaPlugin {
     public AmdatuIdeaPluginImpl(Project project) {
         myProject = project;
         myNotificationService = new AmdatuIdeaNotificationService(project);
+        myRefreshScheduler = new RefreshScheduler(project, project, this::refresh);
     }
 
     @Override
@@ -84,147 +101,362 @@ public class AmdatuIdeaPluginImpl implements AmdatuIdeaPlugin {
     @Nullable
     @Override
     public Workspace getWorkspace() {
-        if (myWorkspace == null && myProject.getBasePath() != null && !isBndWorkspace()) {
-            return null;
+        Workspace workspace = myWorkspace;
+        if (workspace != null) {
+            return workspace;
         }
 
-        if (myWorkspace != null) {
-            return myWorkspace;
+        CompletableFuture<Workspace> workspaceFuture = getWorkspaceAsync();
+        if (!workspaceFuture.isDone() && ApplicationManager.getApplication().isDispatchThread()) {
+            ProgressManager.getInstance().runProcessWithProgressSynchronously(
+                    () -> waitForWorkspace(workspaceFuture), "Creating Workspace", false, myProject);
         }
+        return waitForWorkspace(workspaceFuture);
+    }
 
-        synchronized (workspaceLock) {
-            if (myWorkspace == null) {
-                try {
-                    Task.WithResult<Workspace, Exception> createdBndWorkspace =
-                            new Task.WithResult<Workspace, Exception>(myProject, "Creating Workspace", false) {
-
-                                @Override
-                                protected Workspace compute(@NotNull ProgressIndicator indicator) throws Exception {
-                                    //noinspection ConstantConditions - checked above
-                                    Workspace workspace = new Workspace(new File(getProject().getBasePath()));
-                                    if (workspace.getErrors() != null) {
-                                        myWorkspaceErrors = workspace.getErrors().stream()
-                                                .map(msg -> {
-                                                    Report.Location location = workspace.getLocation(msg);
-                                                    if (location == null) {
-                                                        location = new Report.Location() {};
-                                                        location.message = msg;
-                                                    }
-                                                    return location;
-                                                })
-                                                .collect(Collectors.toList());
-                                    }
-
-                                    myNotificationService.info("Created bnd workspace");
-                                    return workspace;
-                                }
-                            };
-                    createdBndWorkspace.queue();
-                    myWorkspace = createdBndWorkspace.getResult();
-                    myPackageInfoService = new PackageInfoService(myProject, this);
-
-                    reportWorkspaceIssues();
-
-                    RepoUtilKt.validateRepoLocations(this);
-
-                    reImportProjects();
-
-                    MessageBusConnection messageBusConnection = myProject.getMessageBus().connect();
-                    BndFileChangedListener fileChangedListener = new BndFileChangedListener();
-                    messageBusConnection.subscribe(VirtualFileManager.VFS_CHANGES, fileChangedListener);
-                    messageBusConnection.subscribe(BranchChangeListener.VCS_BRANCH_CHANGED, fileChangedListener);
-                } catch (Exception e) {
-                    LOG.error("Failed to create bnd workspace", e);
-                }
+    @NotNull
+    @Override
+    public CompletableFuture<Workspace> getWorkspaceAsync() {
+        if (myWorkspace == null && !isBndWorkspace()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (myWorkspaceCreationStarted.compareAndSet(false, true)) {
+            ApplicationManager.getApplication().executeOnPooledThread(this::createWorkspace);
+        }
+        return myWorkspaceFuture;
+    }
+
+    @Nullable
+    @Override
+    public Workspace getWorkspaceIfReady() {
+        return myWorkspaceFuture.getNow(null);
+    }
+
+    @Nullable
+    private Workspace waitForWorkspace(CompletableFuture<Workspace> workspaceFuture) {
+        while (true) {
+            // The workspace is available before the creation completes, e.g. for the initial import
+            Workspace workspace = myWorkspace;
+            if (workspace != null) {
+                return workspace;
+            }
+            try {
+                return workspaceFuture.get(100, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                ProgressManager.checkCanceled();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
             }
-            return myWorkspace;
+        }
+    }
+
+    private void createWorkspace() {
+        RefreshStatistics statistics = RefreshStatistics.getInstance(myProject);
+        RefreshStatistics.Operation operation = statistics.start(RefreshStatistics.WORKSPACE_CREATION);
+        try {
+            Workspace workspace;
+            try (RefreshStatistics.Timer ignored = operation.time(RefreshStatistics.PHASE_CREATE_WORKSPACE)) {
+                //noinspection ConstantConditions - checked by isBndWorkspace
+                workspace = new Workspace(new File(myProject.getBasePath()));
+            }
+            if (workspace.getErrors() != null) {
+                myWorkspaceErrors = workspace.getErrors().stream()
+                        .map(msg -> {
+                            Report.Location location = workspace.getLocation(msg);
+                            if (location == null) {
+                                location = new Report.Location() {};
+                                location.message = msg;
+                            }
+                            return location;
+                        })
+                        .collect(Collectors.toList());
+            }
+
+            myNotificationService.info("Created bnd workspace");
+            myWorkspace = workspace;
+            myPackageInfoService = ApplicationManager.getApplication().runReadAction(
+                    (Computable<PackageInfoService>) () -> new PackageInfoService(myProject, this));
+            myWorkspaceFuture.complete(workspace);
+
+            // Inspections skip bnd files until the workspace is available
+            ApplicationManager.getApplication().invokeLater(
+                    () -> DaemonCodeAnalyzer.getInstance(myProject).restart(), myProject.getDisposed());
+
+            reportWorkspaceIssues();
+
+            BndProjectImporter.importWorkspace(myProject);
+            myWorkspaceLock.read(() -> {
+                myRefreshEngine.recordWorkspace(workspace);
+                myPathIndex.rebuild(workspace);
+                return null;
+            });
+
+            MessageBusConnection messageBusConnection = myProject.getMessageBus().connect();
+            BndFileChangedListener fileChangedListener = new BndFileChangedListener();
+            messageBusConnection.subscribe(VirtualFileManager.VFS_CHANGES, fileChangedListener);
+            messageBusConnection.subscribe(BranchChangeListener.VCS_BRANCH_CHANGED, fileChangedListener);
+
+            RepoUtilKt.validateRepoLocations(this, operation);
+        } catch (Exception e) {
+            LOG.error("Failed to create bnd workspace", e);
+            myWorkspaceFuture.complete(myWorkspace);
+        } finally {
+            statistics.finish(operation);
         }
     }
 
     @Override
-    public void refreshWorkspace(boolean forceRefresh) {
-        long start = System.currentTimeMillis();
+    public <T, E extends Throwable> T runRead(@NotNull ThrowableComputable<T, E> computable) throws E {
+        return myWorkspaceLock.read(computable);
+    }
+
+    @Override
+    public <T, E extends Throwable> T runWrite(@NotNull ThrowableComputable<T, E> computable) throws E {
+        return myWorkspaceLock.write(computable);
+    }
+
+    @Nullable
+    @Override
+    public <T, E extends Throwable> T tryRunRead(@NotNull ThrowableComputable<T, E> computable) throws E {
+        return myWorkspaceLock.tryRead(computable);
+    }
 
+    @Override
+    public void refreshWorkspace(boolean forceRefresh) {
         if (myWorkspace == null) {
             myNotificationService.info("Workspace not initialized, not refreshing'");
             return;
         }
 
-        new Task.Backgroundable(myProject, "Refreshing Bnd Workspace", false) {
-
-            @Override
-            public void run(@NotNull ProgressIndicator indicator) {
-                synchronized (workspaceLock) {
-                    myWorkspace.clear();
-                    if (myWorkspace.refresh()) {
-                        if (myWorkspace.getErrors() != null) {
-                            myWorkspaceErrors = myWorkspace.getErrors().stream()
-                                    .map(myWorkspace::getLocation)
-                                    .collect(Collectors.toList());
-                        }
-
-                    } else if (forceRefresh) {
-                        LOG.info("Forced workspace refresh");
-                        myWorkspace.forceRefresh();
-                        for (aQute.bnd.build.Project project : myWorkspace.getCurrentProjects()) {
-                            project.forceRefresh();
-                        }
-                    } else {
-                        // not refreshed
-                        return;
-                    }
+        myRefreshScheduler.scheduleWorkspaceRefresh(forceRefresh);
+    }
+
+    /**
+     * Execute a refresh request scheduled by the {@link RefreshScheduler}.
+     */
+    private void refresh(RefreshScheduler.Request request, ProgressIndicator indicator) {
+        Set<String> modules = new HashSet<>(request.getModules());
+        RefreshStatistics statistics = RefreshStatistics.getInstance(myProject);
+
+        if (request.isRefreshWorkspace() || !myWorkspaceErrors.isEmpty()) {
+            RefreshStatistics.Operation operation = statistics.start(RefreshStatistics.WORKSPACE_REFRESH);
+            Set<String> reImported;
+            try {
+                reImported = doRefreshWorkspace(request.isForce(), indicator, operation);
+            } finally {
+                statistics.finish(operation);
+            }
+            if (reImported == null || !myWorkspaceErrors.isEmpty()) {
+                return;
+            }
+            modules.removeAll(reImported);
+        }
 
-                    if (myWorkspace.getErrors() != null) {
-                        myWorkspaceErrors = myWorkspace.getErrors().stream()
-                                .map(myWorkspace::getLocation)
-                                .collect(Collectors.toList());
+        if (!modules.isEmpty()) {
+            RefreshStatistics.Operation operation = statistics.start(RefreshStatistics.MODULE_REFRESH);
+            try {
+                doRefreshModules(modules, indicator, operation);
+            } finally {
+                statistics.finish(operation);
+            }
+        }
+    }
+
+    /**
+     * Refresh the workspace
+     *
+     * @return names of the re-imported projects, {@code null} if all projects have been re-imported
+     */
+    @Nullable
+    private Set<String> doRefreshWorkspace(boolean forceRefresh, ProgressIndicator indicator,
+                                           RefreshStatistics.Operation operation) {
+        long start = System.currentTimeMillis();
+
+        indicator.checkCanceled();
+
+        // Names of the projects affected by the refresh, null if all projects need to be re-imported
+        Ref<Set<String>> staleProjectsRef = Ref.create();
+        RefreshStatistics.Timer refreshTimer = operation.time(RefreshStatistics.PHASE_WORKSPACE_REFRESH);
+        boolean refreshed = myWorkspaceLock.write(() -> {
+            myWorkspace.clear();
+            if (myWorkspace.refresh()) {
+                if (!forceRefresh) {
+                    try {
+                        staleProjectsRef.set(myRefreshEngine.getStaleProjects(myWorkspace));
+                    } catch (Exception e) {
+                        LOG.warn("Failed to determine stale projects, re-importing all projects", e);
                     }
+                }
+            } else if (forceRefresh) {
+                LOG.info("Forced workspace refresh");
+                BndProjectImporter.discardCheckpoints(myProject);
+                myWorkspace.forceRefresh();
+                for (aQute.bnd.build.Project project : myWorkspace.getCurrentProjects()) {
+                    project.forceRefresh();
+                }
+            } else {
+                return false;
+            }
+
+            if (myWorkspace.getErrors() != null) {
+                myWorkspaceErrors = myWorkspace.getErrors().stream()
+                        .map(myWorkspace::getLocation)
+                        .collect(Collectors.toList());
+            }
+            return true;
+        });
+        refreshTimer.close();
+
+        if (!refreshed) {
+            return Collections.emptySet();
+        }
 
-                    reportWorkspaceIssues();
+        Set<String> staleProjects = staleProjectsRef.get();
+        reportWorkspaceIssues();
 
-                    if (myWorkspaceErrors.isEmpty()) {
-                        indicator.setText("Refreshing Repositories");
-                        refreshRepositories(indicator);
-                        RepoUtilKt.validateRepoLocations(AmdatuIdeaPluginImpl.this);
+        if (!myWorkspaceErrors.isEmpty()) {
+            myNotificationService.warning("Workspace has errors, not re-importing projects.");
+            return staleProjects;
+        }
+
+        // Repositories are refreshed in place while holding the write lock, readers don't see a repository halfway a
+        // refresh. The timeout of each repository bounds how long the lock is held, readers on the EDT don't wait.
+        indicator.setText("Refreshing Repositories");
+        try (RefreshStatistics.Timer ignored = operation.time(RefreshStatistics.PHASE_REPOSITORY_REFRESH)) {
+            refreshRepositories(indicator, operation);
+        }
+
+        RepoUtilKt.validateRepoLocations(AmdatuIdeaPluginImpl.this, operation);
 
-                        reImportProjects();
+        String reImported;
+        if (staleProjects == null) {
+            reImportProjects();
+            reImported = "all projects";
+        } else {
+            reImportProjects(staleProjects, operation);
+            reImported = staleProjects.size() + " projects";
+        }
+        myWorkspaceLock.read(() -> {
+            myRefreshEngine.recordWorkspace(myWorkspace);
+            myPathIndex.rebuild(myWorkspace);
+            return null;
+        });
 
-                        WorkspaceRefreshedNotifier workspaceRefreshedNotifier =
-                                myProject.getMessageBus().syncPublisher(WorkspaceRefreshedNotifier.WORKSPACE_REFRESHED);
-                        workspaceRefreshedNotifier.workpaceRefreshed();
+        WorkspaceRefreshedNotifier workspaceRefreshedNotifier =
+                myProject.getMessageBus().syncPublisher(WorkspaceRefreshedNotifier.WORKSPACE_REFRESHED);
+        workspaceRefreshedNotifier.workpaceRefreshed();
+
+        myNotificationService.info("Workspace refreshed in " + (System.currentTimeMillis() - start)
+                + " ms (re-imported " + reImported + ")");
+        return staleProjects;
+    }
 
-                        myNotificationService.info("Workspace refreshed in " + (System.currentTimeMillis() - start) + " ms");
-                    } else {
-                        myNotificationService.warning("Workspace has errors, not re-importing projects.");
+    /**
+     * Refresh and re-import the projects for the given modules after a change in a project bnd file.
+     */
+    private void doRefreshModules(Collection<String> moduleNames, ProgressIndicator indicator,
+                                  RefreshStatistics.Operation operation) {
+        List<String> bndProjectPaths = ContainerUtil.newArrayList();
+        List<aQute.bnd.build.Project> refreshedProjects = ContainerUtil.newArrayList();
+        myWorkspaceLock.write(() -> {
+            for (String moduleName : moduleNames) {
+                indicator.checkCanceled();
+                try (RefreshStatistics.Timer ignored =
+                             operation.time(RefreshStatistics.PHASE_PROJECT_REFRESH, moduleName)) {
+                    aQute.bnd.build.Project project = myWorkspace.getProject(moduleName);
+                    if (project != null) {
+                        project.clear();
+                        project.refresh();
+                        bndProjectPaths.add(project.getPropertiesFile().getParentFile().getAbsolutePath());
+                        refreshedProjects.add(project);
                     }
+                } catch (Exception e) {
+                    LOG.error("Failed to refresh project for module " + moduleName, e);
                 }
             }
-        }.queue();
+            return null;
+        });
+
+        BndProjectImporter.reimportProjects(myProject, bndProjectPaths);
+        myWorkspaceLock.read(() -> {
+            myRefreshEngine.recordProjects(refreshedProjects);
+            myPathIndex.update(refreshedProjects);
+            return null;
+        });
+
+        // TODO: Create specific event for changed module might be better
+        WorkspaceRefreshedNotifier workspaceRefreshedNotifier =
+                myProject.getMessageBus().syncPublisher(WorkspaceRefreshedNotifier.WORKSPACE_REFRESHED);
+        workspaceRefreshedNotifier.workpaceRefreshed();
     }
 
     private void reImportProjects() {
         BndProjectImporter.reimportWorkspace(myProject);
     }
 
-    private void refreshRepositories(ProgressIndicator indicator) {
-        List<RepositoryPlugin> plugins = myWorkspace.getPlugins(RepositoryPlugin.class);
-        for (int i = 0; i < plugins.size(); i++) {
-            RepositoryPlugin plugin = plugins.get(i);
-            if (plugin instanceof Refreshable) {
-                try {
-                    indicator.setText("Refreshing repo " + plugin.getName());
-                    ((Refreshable) plugin).refresh();
-                } catch (Exception e) {
-                    if (plugin instanceof MavenBndRepository && e instanceof NullPointerException) {
-                        // This repo doesn't init until it's used and throws an NPE on refresh
-                        // TODO: Report as BND issue (if not already fixed in next)
-                        LOG.info("Failed to refresh repository, '" + plugin.getName() + "'", e);
-                    } else {
-                        LOG.error("Failed to refresh repository, '" + plugin.getName() + "'", e);
+    /**
+     * Refresh and re-import the projects with the given names, projects that are not affected by the workspace
+     * change keep their current module configuration.
+     */
+    private void reImportProjects(Collection<String> projectNames, RefreshStatistics.Operation operation) {
+        List<aQute.bnd.build.Project> projects = new ArrayList<>();
+        myWorkspaceLock.write(() -> {
+            for (String projectName : projectNames) {
+                try (RefreshStatistics.Timer ignored =
+                             operation.time(RefreshStatistics.PHASE_PROJECT_REFRESH, projectName)) {
+                    aQute.bnd.build.Project project = myWorkspace.getProject(projectName);
+                    if (project != null) {
+                        // Re-read the project properties, they still inherit from the properties of the stale
+                        // workspace
+                        project.forceRefresh();
+                        projects.add(project);
                     }
+                } catch (Exception e) {
+                    LOG.error("Failed to refresh project " + projectName, e);
                 }
             }
-            indicator.setFraction((double) i / (double) plugins.size());
+            return null;
+        });
+
+        if (!projects.isEmpty()) {
+            List<String> bndProjectPaths = projects.stream()
+                    .map(project -> project.getBase().getAbsolutePath())
+                    .collect(Collectors.toList());
+            BndProjectImporter.reimportProjects(myProject, bndProjectPaths);
+        }
+    }
+
+    private void refreshRepositories(ProgressIndicator indicator, RefreshStatistics.Operation operation) {
+        long timeout =
+                TimeUnit.SECONDS.toMillis(AmdatuIdeaPreferences.getInstance().getRepositoryRefreshTimeoutSeconds());
+        List<RepositoryRefresher.Result> results = myWorkspaceLock.write(() -> new RepositoryRefresher(timeout)
+                .refresh(myWorkspace.getPlugins(RepositoryPlugin.class), indicator));
+
+        List<String> failed = new ArrayList<>();
+        for (RepositoryRefresher.Result result : results) {
+            LOG.info("Repository refresh " + result);
+            if (result.getStatus() == RepositoryRefresher.Status.NOT_INITIALIZED) {
+                // Nothing refreshed, not a failure either
+                continue;
+            }
+            operation.record(RefreshStatistics.PHASE_REPOSITORY_REFRESH, result.getName(),
+                    result.getDurationMillis());
+            if (result.getStatus() != RepositoryRefresher.Status.REFRESHED) {
+                Throwable error = result.getError();
+                failed.add(result.getName() + " (" + result.getStatus().name().toLowerCase().replace('_', ' ')
+                        + (error != null ? ": " + error.getMessage() : "") + ")");
+            }
+        }
+        myNotificationService.info("Refreshed repositories: " + results.stream()
+                .map(result -> result.getName() + (result.getStatus() == RepositoryRefresher.Status.NOT_INITIALIZED
+                        ? " (not initialized)" : " " + result.getDurationMillis() + " ms"))
+                .collect(Collectors.joining(", ")));
+        if (!failed.isEmpty()) {
+            myNotificationService.warning("Failed to refresh repositories: " + String.join(", ", failed));
         }
     }
 
@@ -250,6 +482,11 @@ public class AmdatuIdeaPluginImpl implements AmdatuIdeaPlugin {
         private volatile boolean branchWillChange;
         private volatile String branchName;
 
+        /**
+         * HEAD revision before the last change, used to determine the changed files after a branch change
+         */
+        private volatile String revision;
+
         private final VcsRepositoryManager myVcsRepositoryManager = VcsRepositoryManager.getInstance(myProject);
 
         BndFileChangedListener() {
@@ -257,21 +494,10 @@ public class AmdatuIdeaPluginImpl implements AmdatuIdeaPlugin {
             if (vcsRepository != null) {
                 vcsRepository.update();
                 branchName = vcsRepository.getCurrentBranchName();
+                revision = vcsRepository.getCurrentRevision();
             }
         }
 
-        private Set<String> workspaceFileNames() {
-            List<File> workspaceFiles = new ArrayList<>();
-            if (myWorkspace.getIncluded() != null) {
-                workspaceFiles.addAll(myWorkspace.getIncluded());
-            }
-            workspaceFiles.add(myWorkspace.getPropertiesFile());
-
-            return workspaceFiles.stream()
-                    .map(File::getAbsolutePath)
-                    .collect(Collectors.toSet());
-        }
-
         @Override
         public void after(@NotNull List<? extends VFileEvent> events) {
 
@@ -299,6 +525,9 @@ public class AmdatuIdeaPluginImpl implements AmdatuIdeaPlugin {
                     branchHasChanged(currentBranchName);
                     return;
                 }
+
+                // Changes on the current branch (e.g. a pull) are handled by the events
+                revision = vcsRepository.getCurrentRevision();
             }
 
             boolean refreshWorkspace = false;
@@ -306,64 +535,29 @@ public class AmdatuIdeaPluginImpl implements AmdatuIdeaPlugin {
             Set<String> modulesToRefresh = ContainerUtil.newHashSet();
             for (VFileEvent event : events) {
 
-                if (workspaceFileNames().contains(event.getPath())) {
+                String path = event.getPath();
+                if (myPathIndex.isWorkspaceFile(path)) {
                     // A workspace file has changed (.bnd file in cnf folder) refresh the workspace
                     refreshWorkspace = true;
                     break;
                 }
 
-                if (AmdatuIdeaConstants.BND_EXT.equals(PathUtil.getFileExtension(event.getPath()))) {
-                    VirtualFile file = event.getFile();
-                    if (file == null) {
-                        continue;
-                    }
-
-                    Module module = ProjectFileIndex.getInstance(myProject).getModuleForFile(file);
-                    if (module != null) {
-                        // Bnd file not part set of workspace configuration files has changed
+                if (AmdatuIdeaConstants.BND_EXT.equals(PathUtil.getFileExtension(path))) {
+                    // Bnd file not part set of workspace configuration files has changed, re-import the project it's
+                    // part of and the projects including it using an -include instruction
+                    Set<String> projects = myPathIndex.getProjects(path);
+                    if (!projects.isEmpty()) {
                         importProjects = true;
-                        modulesToRefresh.add(module.getName());
+                        modulesToRefresh.addAll(projects);
                     }
                 }
             }
 
-            boolean finalRefreshWorkspace = refreshWorkspace;
-            boolean finalImportProjects = importProjects;
-
-            new Task.Backgroundable(myProject, "Refreshing", true) {
-                @Override
-                public void run(@NotNull ProgressIndicator indicator) {
-                    if (finalRefreshWorkspace) {
-                        refreshWorkspace(false);
-                    } else if (finalImportProjects && !myWorkspaceErrors.isEmpty()) {
-                        refreshWorkspace(false);
-                    } else if (finalImportProjects) {
-                        synchronized (workspaceLock) {
-                            List<String> bndProjectPaths = ContainerUtil.newArrayList();
-                            for (String moduleName : modulesToRefresh) {
-                                try {
-                                    aQute.bnd.build.Project project = myWorkspace.getProject(moduleName);
-                                    if (project != null) {
-                                        project.clear();
-                                        project.refresh();
-                                        bndProjectPaths.add(project.getPropertiesFile().getParentFile().getAbsolutePath());
-                                    }
-                                } catch (Exception e) {
-                                    LOG.error("Failed to refresh project for module " + moduleName, e);
-                                }
-                            }
-
-                            BndProjectImporter.reimportProjects(myProject, bndProjectPaths);
-
-                            // TODO: Create specific event for changed module might be better
-                            WorkspaceRefreshedNotifier workspaceRefreshedNotifier =
-                                    myProject.getMessageBus().syncPublisher(WorkspaceRefreshedNotifier.WORKSPACE_REFRESHED);
-                            workspaceRefreshedNotifier.workpaceRefreshed();
-
-                        }
-                    }
-                }
-            }.queue();
+            if (refreshWorkspace) {
+                myRefreshScheduler.scheduleWorkspaceRefresh(false);
+            } else if (importProjects) {
+                myRefreshScheduler.scheduleModuleRefresh(modulesToRefresh);
+            }
         }
 
         @Override
@@ -374,9 +568,72 @@ public class AmdatuIdeaPluginImpl implements AmdatuIdeaPlugin {
         @Override
         public void branchHasChanged(@Nullable String branchName) {
             this.branchName = branchName;
-            refreshWorkspace(true);
+
+            String previousRevision = revision;
+            Repository vcsRepository = myVcsRepositoryManager.getRepositoryForFile(myProject.getBaseDir());
+            String currentRevision = null;
+            if (vcsRepository != null) {
+                vcsRepository.update();
+                currentRevision = vcsRepository.getCurrentRevision();
+            }
+            revision = currentRevision;
+
+            if (vcsRepository == null || previousRevision == null || currentRevision == null) {
+                refreshWorkspace(true);
+            } else if (!previousRevision.equals(currentRevision)) {
+                String fromRevision = previousRevision;
+                String toRevision = currentRevision;
+                ApplicationManager.getApplication().executeOnPooledThread(
+                        () -> refreshChangedFiles(vcsRepository, fromRevision, toRevision));
+            }
             branchWillChange = false;
         }
+
+        /**
+         * Refresh the workspace and re-import only the projects affected by the bnd files that differ between the
+         * revisions, falls back to a forced refresh of the workspace if the changes can't be determined or projects
+         * have been added or removed.
+         */
+        private void refreshChangedFiles(Repository vcsRepository, String fromRevision, String toRevision) {
+            Map<String, VcsChangedFiles.ChangeType> changedFiles =
+                    VcsChangedFiles.getChangedFiles(vcsRepository, fromRevision, toRevision);
+            if (changedFiles == null) {
+                refreshWorkspace(true);
+                return;
+            }
+
+            String cnfDir = FileUtil.toSystemIndependentName(
+                    new File(myProject.getBasePath(), Workspace.CNFDIR).getAbsolutePath()) + "/";
+
+            boolean workspaceChanged = false;
+            Set<String> modulesToRefresh = new HashSet<>();
+            for (Map.Entry<String, VcsChangedFiles.ChangeType> entry : changedFiles.entrySet()) {
+                String path = entry.getKey();
+                if (myPathIndex.isWorkspaceFile(path) || path.startsWith(cnfDir)) {
+                    workspaceChanged = true;
+                    continue;
+                }
+
+                if (AmdatuIdeaConstants.BND_EXT.equals(PathUtil.getFileExtension(path))) {
+                    Set<String> projects = myPathIndex.getProjects(path);
+                    boolean projectAddedOrRemoved = AmdatuIdeaConstants.BND_BND.equals(PathUtil.getFileName(path))
+                            && entry.getValue() != VcsChangedFiles.ChangeType.MODIFIED;
+                    if (projects.isEmpty() || projectAddedOrRemoved) {
+                        LOG.info("Bnd projects added or removed on branch change, refreshing workspace");
+                        refreshWorkspace(true);
+                        return;
+                    }
+                    modulesToRefresh.addAll(projects);
+                }
+            }
+
+            LOG.info("Branch changed from " + fromRevision + " to " + toRevision + ", workspace changed: "
+                    + workspaceChanged + ", projects changed: " + modulesToRefresh);
+            if (workspaceChanged) {
+                myRefreshScheduler.scheduleWorkspaceRefresh(false);
+            }
+            myRefreshScheduler.scheduleModuleRefresh(modulesToRefresh);
+        }
     }
 
     @Override
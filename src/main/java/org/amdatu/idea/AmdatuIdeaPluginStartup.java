@@ -25,11 +25,11 @@ import com.intellij.diagnostic.errordialog.PluginConflictDialog;
 import com.intellij.ide.highlighter.ModuleFileType;
 import com.intellij.ide.plugins.IdeaPluginDescriptor;
 import com.intellij.ide.plugins.PluginManager;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.extensions.PluginId;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.startup.StartupActivity;
 
-import aQute.bnd.build.Workspace;
 import static com.intellij.openapi.extensions.PluginId.getId;
 
 public class AmdatuIdeaPluginStartup implements StartupActivity {
@@ -44,8 +44,13 @@ public class AmdatuIdeaPluginStartup implements StartupActivity {
         String imlPath = rootDir + File.separator + project.getName() + ModuleFileType.DOT_DEFAULT_EXTENSION;
 
         if (amdatuIdeaPlugin.isBndWorkspace() && new File(imlPath).isFile()) {
-            Workspace workspace = amdatuIdeaPlugin.getWorkspace();
-            new BundleInfoToolWindow(project, workspace);
+            // Don't block the startup while the workspace is created, the tool window is added once it's available
+            amdatuIdeaPlugin.getWorkspaceAsync().thenAccept(workspace -> {
+                if (workspace != null) {
+                    ApplicationManager.getApplication().invokeLater(
+                            () -> new BundleInfoToolWindow(project, workspace), project.getDisposed());
+                }
+            });
         } else if (amdatuIdeaPlugin.isBndWorkspace()) {
             // TODO: Import action link
             amdatuIdeaPlugin.getNotificationService().info("Bnd workspace detected, use 'New -> Project from Existing Sources' to import");
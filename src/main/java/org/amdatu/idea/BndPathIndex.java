@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.PathUtil;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.build.Workspace;
+
+/**
+ * Index of the bnd files in a workspace used to classify changed files without accessing the workspace or the module
+ * structure.
+ *
+ * <p>Maps the workspace configuration files (cnf/build.bnd and the files it includes) to the workspace and the project
+ * bnd files, sub-bundle bnd files and files included by a project to the projects using them. All paths are system
+ * independent to match the paths of {@link com.intellij.openapi.vfs.newvfs.events.VFileEvent}s.
+ */
+class BndPathIndex {
+
+    private static final Logger LOG = Logger.getInstance(BndPathIndex.class);
+
+    private final Set<String> myWorkspaceFiles = new HashSet<>();
+    private final Map<String, Set<String>> myProjectFiles = new HashMap<>();
+    private final Map<String, String> myProjectDirs = new HashMap<>();
+    private String myWorkspaceDir;
+
+    /**
+     * Rebuild the index for the workspace, called after the workspace has been (re)loaded.
+     */
+    synchronized void rebuild(@NotNull Workspace workspace) {
+        myWorkspaceFiles.clear();
+        myProjectFiles.clear();
+        myProjectDirs.clear();
+
+        myWorkspaceDir = path(workspace.getBase());
+        myWorkspaceFiles.add(path(workspace.getPropertiesFile()));
+        if (workspace.getIncluded() != null) {
+            for (File file : workspace.getIncluded()) {
+                myWorkspaceFiles.add(path(file));
+            }
+        }
+
+        try {
+            for (Project project : workspace.getAllProjects()) {
+                addProject(project);
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to index bnd projects", e);
+        }
+    }
+
+    /**
+     * Update the index for projects that have been refreshed, their includes may have changed.
+     */
+    synchronized void update(@NotNull Collection<Project> projects) {
+        for (Project project : projects) {
+            String name = project.getName();
+            Iterator<Set<String>> iterator = myProjectFiles.values().iterator();
+            while (iterator.hasNext()) {
+                Set<String> names = iterator.next();
+                if (names.remove(name) && names.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+            myProjectDirs.values().remove(name);
+            addProject(project);
+        }
+    }
+
+    synchronized boolean isWorkspaceFile(@NotNull String path) {
+        return myWorkspaceFiles.contains(path);
+    }
+
+    /**
+     * Get the names of the projects using a bnd file, this is the project the file is part of and all projects
+     * including the file. Files that are not indexed (e.g. a newly created sub-bundle file) are mapped to the project
+     * containing them.
+     *
+     * @param path system independent path of the bnd file
+     */
+    @NotNull
+    synchronized Set<String> getProjects(@NotNull String path) {
+        Set<String> projects = myProjectFiles.get(path);
+        if (projects != null) {
+            return Collections.unmodifiableSet(projects);
+        }
+
+        String dir = PathUtil.getParentPath(path);
+        while (!dir.isEmpty() && !dir.equals(myWorkspaceDir)) {
+            String project = myProjectDirs.get(dir);
+            if (project != null) {
+                return Collections.singleton(project);
+            }
+            dir = PathUtil.getParentPath(dir);
+        }
+        return Collections.emptySet();
+    }
+
+    private void addProject(Project project) {
+        String name = project.getName();
+        myProjectDirs.put(path(project.getBase()), name);
+
+        addProjectFile(project.getPropertiesFile(), name);
+        List<File> included = project.getIncluded();
+        if (included != null) {
+            for (File file : included) {
+                addProjectFile(file, name);
+            }
+        }
+
+        // Sub-bundle bnd files
+        File[] bndFiles = project.getBase().listFiles(
+                (dir, fileName) -> fileName.endsWith("." + AmdatuIdeaConstants.BND_EXT));
+        if (bndFiles != null) {
+            for (File file : bndFiles) {
+                addProjectFile(file, name);
+            }
+        }
+    }
+
+    private void addProjectFile(File file, String project) {
+        if (file != null) {
+            myProjectFiles.computeIfAbsent(path(file), p -> new HashSet<>()).add(project);
+        }
+    }
+
+    private static String path(File file) {
+        return FileUtil.toSystemIndependentName(file.getAbsolutePath());
+    }
+}
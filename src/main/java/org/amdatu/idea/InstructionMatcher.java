@@ -0,0 +1,222 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import aQute.bnd.header.Parameters;
+import aQute.bnd.osgi.Instruction;
+import aQute.bnd.osgi.Instructions;
+
+/**
+ * Compiled form of bnd {@link Instructions} (e.g. an {@code Export-Package} or {@code Private-Package} instruction)
+ * to match a large number of package names.
+ *
+ * <p>Literals, package patterns ({@code com.acme.*}), prefix patterns ({@code com.acme*}) and {@code *} are stored in
+ * a character trie, matching a value takes a single walk over its characters. Other patterns (e.g. {@code com.*.impl}
+ * or case insensitive instructions) are matched with the bnd {@link Instruction}. As in bnd the first matching
+ * instruction determines the result, a value matches unless that instruction is negated and empty instructions match
+ * every value.
+ */
+public class InstructionMatcher {
+
+    private static final int NONE = Integer.MAX_VALUE;
+    private static final int MAX_CACHED = 500;
+
+    /**
+     * Regular expression of a package pattern as generated by {@link Instruction}, e.g. {@code com\.acme(\..*)?}
+     */
+    private static final Pattern PACKAGE_PATTERN = Pattern.compile("((?:[\\w$]|\\\\\\.)+)\\(\\\\\\.\\.\\*\\)\\?");
+
+    /**
+     * Regular expression of a prefix pattern as generated by {@link Instruction}, e.g. {@code com\.acme.*}
+     */
+    private static final Pattern PREFIX_PATTERN = Pattern.compile("((?:[\\w$]|\\\\\\.)*)\\.\\*");
+
+    private static final Map<String, InstructionMatcher> CACHE =
+            new LinkedHashMap<String, InstructionMatcher>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, InstructionMatcher> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            };
+
+    private static class Node {
+        private final Map<Character, Node> myChildren = new HashMap<>(4);
+
+        /**
+         * Index of the first instruction matching the value ending at this node
+         */
+        private int myLiteral = NONE;
+
+        /**
+         * Index of the first package pattern matching the package ending at this node and its sub packages
+         */
+        private int myPackage = NONE;
+
+        /**
+         * Index of the first prefix pattern matching all values starting with the value ending at this node
+         */
+        private int myPrefix = NONE;
+    }
+
+    private final Node myRoot = new Node();
+    private final List<Instruction> myInstructions = new ArrayList<>();
+    private final List<Integer> myFallback = new ArrayList<>();
+
+    private InstructionMatcher(@NotNull Instructions instructions) {
+        for (Instruction instruction : instructions.keySet()) {
+            int index = myInstructions.size();
+            myInstructions.add(instruction);
+            if (!compile(instruction, index)) {
+                myFallback.add(index);
+            }
+        }
+    }
+
+    /**
+     * Compile instructions, the matcher doesn't reflect later changes to the instructions.
+     */
+    @NotNull
+    public static InstructionMatcher compile(@NotNull Instructions instructions) {
+        return new InstructionMatcher(instructions);
+    }
+
+    /**
+     * Get the (shared) matcher for the instructions in a header (e.g. the {@code Export-Package} of a builder).
+     */
+    @NotNull
+    public static InstructionMatcher of(@Nullable Parameters parameters) {
+        String key = parameters != null ? parameters.toString() : "";
+        synchronized (CACHE) {
+            InstructionMatcher matcher = CACHE.get(key);
+            if (matcher != null) {
+                return matcher;
+            }
+        }
+
+        InstructionMatcher matcher = new InstructionMatcher(
+                parameters != null ? new Instructions(parameters) : new Instructions());
+        synchronized (CACHE) {
+            CACHE.put(key, matcher);
+        }
+        return matcher;
+    }
+
+    public boolean isEmpty() {
+        return myInstructions.isEmpty();
+    }
+
+    /**
+     * Same result as {@link Instructions#matches(String)}.
+     */
+    public boolean matches(@NotNull String value) {
+        if (myInstructions.isEmpty()) {
+            return true;
+        }
+        int index = find(value);
+        return index != NONE && !myInstructions.get(index).isNegated();
+    }
+
+    private int find(String value) {
+        int length = value.length();
+        int first = NONE;
+        Node node = myRoot;
+        for (int i = 0; node != null; i++) {
+            first = Math.min(first, node.myPrefix);
+            if (i == length) {
+                first = Math.min(first, Math.min(node.myLiteral, node.myPackage));
+                break;
+            }
+            char c = value.charAt(i);
+            if (c == '.') {
+                first = Math.min(first, node.myPackage);
+            }
+            node = node.myChildren.get(c);
+        }
+
+        // Only instructions before the first match found so far can change the result
+        for (int index : myFallback) {
+            if (index >= first) {
+                break;
+            }
+            if (myInstructions.get(index).matches(value)) {
+                return index;
+            }
+        }
+        return first;
+    }
+
+    private boolean compile(Instruction instruction, int index) {
+        if (instruction.isAny()) {
+            node("").myPrefix = Math.min(node("").myPrefix, index);
+            return true;
+        }
+
+        if (instruction.isLiteral()) {
+            if (instruction.getInput().endsWith(":i")) {
+                return false;
+            }
+            Node node = node(instruction.getLiteral());
+            node.myLiteral = Math.min(node.myLiteral, index);
+            return true;
+        }
+
+        String pattern = instruction.getPattern();
+        if (pattern == null || isCaseInsensitive(instruction)) {
+            return false;
+        }
+
+        Matcher matcher = PACKAGE_PATTERN.matcher(pattern);
+        if (matcher.matches()) {
+            Node node = node(unescape(matcher.group(1)));
+            node.myPackage = Math.min(node.myPackage, index);
+            return true;
+        }
+
+        matcher = PREFIX_PATTERN.matcher(pattern);
+        if (matcher.matches()) {
+            Node node = node(unescape(matcher.group(1)));
+            node.myPrefix = Math.min(node.myPrefix, index);
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isCaseInsensitive(Instruction instruction) {
+        return (instruction.getMatcher("").pattern().flags() & Pattern.CASE_INSENSITIVE) != 0;
+    }
+
+    private static String unescape(String pattern) {
+        return pattern.replace("\\.", ".");
+    }
+
+    private Node node(String value) {
+        Node node = myRoot;
+        for (int i = 0; i < value.length(); i++) {
+            node = node.myChildren.computeIfAbsent(value.charAt(i), c -> new Node());
+        }
+        return node;
+    }
+}
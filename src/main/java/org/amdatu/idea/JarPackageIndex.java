@@ -0,0 +1,199 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+
+import aQute.bnd.util.dto.DTO;
+import aQute.lib.json.JSONCodec;
+
+/**
+ * Index of the packages of the jars used in a project (e.g. the jars on the buildpath of the bnd projects).
+ *
+ * <p>The packages are determined from the central directory of the jar without reading the entries. Entries are
+ * keyed by the jar path and only valid as long as the size and modification time of the jar haven't changed. The index
+ * keeps the most recently used {@link #MAX_ENTRIES} jars and is stored in the IDE system directory.
+ */
+public class JarPackageIndex {
+
+    private static final Logger LOG = Logger.getInstance(JarPackageIndex.class);
+
+    /**
+     * Increase when the index format changes to ignore indexes stored by a previous version of the plugin
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int MAX_ENTRIES = 2000;
+
+    public static class Entry extends DTO {
+        public long length;
+        public long lastModified;
+        public List<String> packages = new ArrayList<>();
+    }
+
+    public static class State extends DTO {
+        public int version;
+        public Map<String, Entry> entries = new LinkedHashMap<>();
+    }
+
+    private final Project myProject;
+    private final Map<String, Entry> myEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final Object mySaveLock = new Object();
+    private boolean myLoaded;
+    private boolean myDirty;
+
+    public JarPackageIndex(Project project) {
+        myProject = project;
+    }
+
+    public static JarPackageIndex getInstance(@NotNull Project project) {
+        return ServiceManager.getService(project, JarPackageIndex.class);
+    }
+
+    /**
+     * The packages in a jar, this includes all directories containing a file, {@code META-INF} as well.
+     *
+     * @return the packages, empty if the jar can't be read
+     */
+    @NotNull
+    public List<String> getPackages(@NotNull File jar) {
+        Entry entry = getEntry(jar);
+        return entry != null ? Collections.unmodifiableList(entry.packages) : Collections.emptyList();
+    }
+
+    @Nullable
+    private Entry getEntry(File jar) {
+        String path = jar.getAbsolutePath();
+        long length = jar.length();
+        long lastModified = jar.lastModified();
+        synchronized (this) {
+            load();
+            Entry entry = myEntries.get(path);
+            if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+                return entry;
+            }
+        }
+
+        // The jar is read without holding the lock, projects are imported concurrently
+        Entry entry;
+        try {
+            entry = read(jar);
+        } catch (IOException e) {
+            LOG.debug("Failed to read jar " + jar, e);
+            return null;
+        }
+        entry.length = length;
+        entry.lastModified = lastModified;
+
+        synchronized (this) {
+            myEntries.put(path, entry);
+            myDirty = true;
+        }
+        return entry;
+    }
+
+    private static Entry read(File jar) throws IOException {
+        Entry entry = new Entry();
+        TreeSet<String> packages = new TreeSet<>();
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                String name = zipEntry.getName();
+                int index = name.lastIndexOf('/');
+                if (!zipEntry.isDirectory() && index > 0) {
+                    packages.add(name.substring(0, index).replace('/', '.'));
+                }
+            }
+        }
+        entry.packages.addAll(packages);
+        return entry;
+    }
+
+    private void load() {
+        if (myLoaded) {
+            return;
+        }
+        myLoaded = true;
+
+        File file = getIndexFile();
+        if (file.isFile()) {
+            try {
+                State state = new JSONCodec().dec().from(file).get(State.class);
+                if (state.version == FORMAT_VERSION) {
+                    myEntries.putAll(state.entries);
+                }
+            } catch (Exception e) {
+                LOG.warn("Failed to read jar package index " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Store the index if it has changed.
+     */
+    public void save() {
+        State state = new State();
+        synchronized (this) {
+            if (!myDirty) {
+                return;
+            }
+            myDirty = false;
+            state.version = FORMAT_VERSION;
+            state.entries.putAll(myEntries);
+        }
+
+        File file = getIndexFile();
+        synchronized (mySaveLock) {
+            try {
+                FileUtil.createParentDirs(file);
+                new JSONCodec().enc().to(file).put(state);
+            } catch (Exception e) {
+                LOG.warn("Failed to write jar package index " + file, e);
+                FileUtil.delete(file);
+            }
+        }
+    }
+
+    @NotNull
+    private File getIndexFile() {
+        return new File(PathManager.getSystemPath(),
+                "amdatu-idea/jar-index/" + myProject.getLocationHash() + ".json");
+    }
+}
@@ -20,6 +20,7 @@ import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.module.ModuleManager
 import com.intellij.openapi.progress.ProgressManager
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.ThrowableComputable
 import com.intellij.psi.PsiDirectory
 import com.intellij.psi.search.GlobalSearchScope
 import org.amdatu.idea.inspections.PackageUtil
@@ -64,22 +65,29 @@ class PackageInfoService(project: Project, amdatuIdeaPlugin: AmdatuIdeaPlugin) {
                     continue
                 }
 
-                val bndProject = myAmdatuIdeaPlugin.workspace.getProject(module.name) ?: continue
-
-                val exportPackageInstructions = Instructions()
-                val privatePackageInstructions = Instructions()
-
-                for (builder in bndProject.getBuilder(null).subBuilders) {
-                    val exportPackage = builder.exportPackage
-                    if (exportPackage !== null) {
-                        exportPackageInstructions.append(exportPackage)
-                    }
-
-                    val privatePackage = builder.privatePackage
-                    if (privatePackage !== null) {
-                        privatePackageInstructions.append(privatePackage)
-                    }
-                }
+                // Skipped while the workspace is being refreshed, the map is updated again after the refresh
+                val (exportPackageInstructions, privatePackageInstructions) =
+                        myAmdatuIdeaPlugin.tryRunRead(ThrowableComputable<Pair<InstructionMatcher, InstructionMatcher>?, Exception> {
+                            val bndProject = myAmdatuIdeaPlugin.workspace.getProject(module.name)
+                                    ?: return@ThrowableComputable null
+
+                            val exportPackageInstructions = Instructions()
+                            val privatePackageInstructions = Instructions()
+
+                            for (builder in bndProject.getBuilder(null).subBuilders) {
+                                val exportPackage = builder.exportPackage
+                                if (exportPackage !== null) {
+                                    exportPackageInstructions.append(exportPackage)
+                                }
+
+                                val privatePackage = builder.privatePackage
+                                if (privatePackage !== null) {
+                                    privatePackageInstructions.append(privatePackage)
+                                }
+                            }
+                            Pair(InstructionMatcher.compile(exportPackageInstructions),
+                                    InstructionMatcher.compile(privatePackageInstructions))
+                        }) ?: continue
 
                 for (psiPackage in psiPackagesForModule) {
                     val moduleSourceScope = GlobalSearchScope.moduleWithDependenciesAndLibrariesScope(module, false)
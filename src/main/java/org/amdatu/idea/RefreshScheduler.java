@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.amdatu.idea.preferences.AmdatuIdeaPreferences;
+import org.jetbrains.annotations.NotNull;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.Alarm;
+
+/**
+ * Schedules workspace refreshes and module re-imports.
+ *
+ * <p>Requests are collected for the configured debounce window and merged into a single run, a workspace refresh
+ * includes the re-import of all stale projects so pending module re-imports are dropped when a workspace refresh is
+ * requested. At most one refresh runs at a time, requests made while a refresh is running are queued and a running
+ * refresh is cancelled when a newer request covers all of its work.
+ */
+class RefreshScheduler {
+
+    private static final Logger LOG = Logger.getInstance(RefreshScheduler.class);
+
+    /**
+     * Executes a (merged) refresh request, called from a background thread.
+     */
+    interface Executor {
+        void refresh(@NotNull Request request, @NotNull ProgressIndicator indicator);
+    }
+
+    static final class Request {
+
+        private boolean myRefreshWorkspace;
+        private boolean myForce;
+        private final Set<String> myModules = new LinkedHashSet<>();
+
+        boolean isRefreshWorkspace() {
+            return myRefreshWorkspace;
+        }
+
+        boolean isForce() {
+            return myForce;
+        }
+
+        @NotNull
+        Set<String> getModules() {
+            return Collections.unmodifiableSet(myModules);
+        }
+
+        boolean isEmpty() {
+            return !myRefreshWorkspace && myModules.isEmpty();
+        }
+
+        private void merge(Request other) {
+            myRefreshWorkspace |= other.myRefreshWorkspace;
+            myForce |= other.myForce;
+            myModules.addAll(other.myModules);
+        }
+
+        /**
+         * Whether running this request makes running the other request obsolete.
+         */
+        private boolean covers(Request other) {
+            if (myRefreshWorkspace && myForce) {
+                return true;
+            }
+            if (other.myRefreshWorkspace) {
+                // A running workspace refresh is only superseded by a forced refresh, the workspace itself is already
+                // refreshed at this point and a non forced refresh would not pick up the changes anymore.
+                return false;
+            }
+            return myRefreshWorkspace || myModules.containsAll(other.myModules);
+        }
+
+        @Override
+        public String toString() {
+            return "Request{workspace=" + myRefreshWorkspace + ", force=" + myForce + ", modules=" + myModules + "}";
+        }
+    }
+
+    private final Project myProject;
+    private final Executor myExecutor;
+    private final Alarm myAlarm;
+
+    private final Object myLock = new Object();
+    private Request myPending = new Request();
+    private Request myRunning;
+    private ProgressIndicator myRunningIndicator;
+
+    RefreshScheduler(@NotNull Project project, @NotNull Disposable parentDisposable, @NotNull Executor executor) {
+        myProject = project;
+        myExecutor = executor;
+        myAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, parentDisposable);
+    }
+
+    void scheduleWorkspaceRefresh(boolean force) {
+        Request request = new Request();
+        request.myRefreshWorkspace = true;
+        request.myForce = force;
+        schedule(request);
+    }
+
+    void scheduleModuleRefresh(@NotNull Collection<String> moduleNames) {
+        if (moduleNames.isEmpty()) {
+            return;
+        }
+        Request request = new Request();
+        request.myModules.addAll(moduleNames);
+        schedule(request);
+    }
+
+    private void schedule(Request request) {
+        synchronized (myLock) {
+            myPending.merge(request);
+        }
+        myAlarm.cancelAllRequests();
+        myAlarm.addRequest(this::flush, AmdatuIdeaPreferences.getInstance().getRefreshDebounceMillis());
+    }
+
+    private void flush() {
+        Request request;
+        synchronized (myLock) {
+            if (myPending.isEmpty()) {
+                return;
+            }
+
+            if (myRunning != null) {
+                // Wait for the running refresh to complete, cancel it if the pending request makes it obsolete
+                if (myRunningIndicator != null && myPending.covers(myRunning)) {
+                    LOG.info("Cancelling stale refresh " + myRunning);
+                    myRunningIndicator.cancel();
+                }
+                return;
+            }
+
+            request = myPending;
+            myPending = new Request();
+            myRunning = request;
+        }
+
+        new Task.Backgroundable(myProject, "Refreshing Bnd Workspace", true) {
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                synchronized (myLock) {
+                    myRunningIndicator = indicator;
+                }
+                myExecutor.refresh(request, indicator);
+            }
+
+            @Override
+            public void onFinished() {
+                synchronized (myLock) {
+                    myRunning = null;
+                    myRunningIndicator = null;
+                    if (myPending.isEmpty()) {
+                        return;
+                    }
+                }
+                myAlarm.addRequest(RefreshScheduler.this::flush, 0);
+            }
+        }.queue();
+    }
+}
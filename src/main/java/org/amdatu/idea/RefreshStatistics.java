@@ -0,0 +1,225 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.messages.Topic;
+
+import aQute.bnd.util.dto.DTO;
+import aQute.lib.json.JSONCodec;
+
+/**
+ * Keeps timings of the workspace lifecycle operations (workspace creation, workspace and module refresh and project
+ * import) for the most recent operations.
+ *
+ * <p>Each operation is split in phases (e.g. {@code Workspace.refresh} or {@code project.prepare}), a phase can have
+ * a breakdown per project or repository.
+ */
+public class RefreshStatistics {
+
+    public static final String WORKSPACE_CREATION = "Workspace creation";
+    public static final String WORKSPACE_REFRESH = "Workspace refresh";
+    public static final String MODULE_REFRESH = "Module refresh";
+    public static final String IMPORT = "Import";
+
+    public static final String PHASE_CREATE_WORKSPACE = "new Workspace";
+    public static final String PHASE_WORKSPACE_REFRESH = "Workspace.refresh";
+    public static final String PHASE_PROJECT_REFRESH = "Project.refresh";
+    public static final String PHASE_REPOSITORY_REFRESH = "Repository refresh";
+    public static final String PHASE_VALIDATE_REPO_LOCATIONS = "validateRepoLocations";
+    public static final String PHASE_PREPARE = "project.prepare";
+    public static final String PHASE_FIND_SOURCES = "findSources";
+    public static final String PHASE_CREATE_PROJECT_STRUCTURE = "createProjectStructure";
+
+    private static final int HISTORY_SIZE = 50;
+
+    public interface Listener {
+        Topic<Listener> TOPIC = Topic.create("Refresh statistics updated", Listener.class);
+
+        void operationFinished(@NotNull Operation operation);
+    }
+
+    /**
+     * Timings of a single phase, the duration is the total time spent in the phase, the items contain the time spent
+     * per project or repository.
+     */
+    public static class Phase extends DTO {
+        public String name;
+        public long duration;
+        public Map<String, Long> items = new LinkedHashMap<>();
+    }
+
+    public static class Operation extends DTO {
+        public String name;
+        public long start;
+        public long duration;
+        public List<Phase> phases = new ArrayList<>();
+
+        /**
+         * Start timing a phase, the time is added to the phase when the returned timer is closed.
+         */
+        @NotNull
+        public Timer time(@NotNull String phase) {
+            return time(phase, null);
+        }
+
+        /**
+         * Start timing an item of a phase, the time is added to the item and the phase when the returned timer is
+         * closed.
+         */
+        @NotNull
+        public Timer time(@NotNull String phase, @Nullable String item) {
+            return new Timer(this, phase, item);
+        }
+
+        /**
+         * Record the time of an item without adding it to the phase duration, for items of a phase that run
+         * concurrently.
+         */
+        public synchronized void record(@NotNull String phase, @NotNull String item, long millis) {
+            getPhase(phase).items.merge(item, millis, Long::sum);
+        }
+
+        /**
+         * A copy of the operation, for reading the phases while they may still be updated.
+         */
+        @NotNull
+        public synchronized Operation snapshot() {
+            Operation operation = new Operation();
+            operation.name = name;
+            operation.start = start;
+            operation.duration = duration;
+            for (Phase phase : phases) {
+                Phase copy = new Phase();
+                copy.name = phase.name;
+                copy.duration = phase.duration;
+                copy.items.putAll(phase.items);
+                operation.phases.add(copy);
+            }
+            return operation;
+        }
+
+        synchronized void add(String phase, @Nullable String item, long millis) {
+            Phase p = getPhase(phase);
+            p.duration += millis;
+            if (item != null) {
+                p.items.merge(item, millis, Long::sum);
+            }
+        }
+
+        private Phase getPhase(String name) {
+            for (Phase phase : phases) {
+                if (phase.name.equals(name)) {
+                    return phase;
+                }
+            }
+            Phase phase = new Phase();
+            phase.name = name;
+            phases.add(phase);
+            return phase;
+        }
+    }
+
+    public static class Timer implements Closeable {
+        private final Operation myOperation;
+        private final String myPhase;
+        private final String myItem;
+        private final long myStart = System.currentTimeMillis();
+
+        private Timer(Operation operation, String phase, String item) {
+            myOperation = operation;
+            myPhase = phase;
+            myItem = item;
+        }
+
+        @Override
+        public void close() {
+            myOperation.add(myPhase, myItem, System.currentTimeMillis() - myStart);
+        }
+    }
+
+    private final Project myProject;
+    private final LinkedList<Operation> myHistory = new LinkedList<>();
+
+    public RefreshStatistics(Project project) {
+        myProject = project;
+    }
+
+    public static RefreshStatistics getInstance(@NotNull Project project) {
+        return ServiceManager.getService(project, RefreshStatistics.class);
+    }
+
+    @NotNull
+    public Operation start(@NotNull String name) {
+        Operation operation = new Operation();
+        operation.name = name;
+        operation.start = System.currentTimeMillis();
+        return operation;
+    }
+
+    /**
+     * Add the operation to the history.
+     */
+    public void finish(@NotNull Operation operation) {
+        synchronized (operation) {
+            operation.duration = System.currentTimeMillis() - operation.start;
+        }
+        synchronized (myHistory) {
+            myHistory.addFirst(operation);
+            if (myHistory.size() > HISTORY_SIZE) {
+                myHistory.removeLast();
+            }
+        }
+        if (!myProject.isDisposed()) {
+            myProject.getMessageBus().syncPublisher(Listener.TOPIC).operationFinished(operation);
+        }
+    }
+
+    /**
+     * The finished operations, most recent first.
+     */
+    @NotNull
+    public List<Operation> getHistory() {
+        synchronized (myHistory) {
+            return new ArrayList<>(myHistory);
+        }
+    }
+
+    public void clear() {
+        synchronized (myHistory) {
+            myHistory.clear();
+        }
+    }
+
+    public void export(@NotNull File file) throws Exception {
+        List<Operation> history = new ArrayList<>();
+        for (Operation operation : getHistory()) {
+            history.add(operation.snapshot());
+        }
+        new JSONCodec().enc().indent("  ").to(file).put(history);
+    }
+}
@@ -25,6 +25,7 @@ import aQute.bnd.service.url.TaggedData
 import aQute.lib.io.IO
 import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.ThrowableComputable
 import java.io.File
 import java.net.URI
 import java.time.Duration
@@ -34,28 +35,35 @@ val LOG = Logger.getInstance("org.amdatu.idea.RepoUtil")
 fun getBundles(project: Project): Set<String> {
     val amdatuIdePlugin = project.getComponent(AmdatuIdeaPlugin::class.java) ?: return emptySet()
 
-    val repositories = amdatuIdePlugin.workspace?.getPlugins(RepositoryPlugin::class.java) ?: return emptySet()
+    return amdatuIdePlugin.runRead(ThrowableComputable<Set<String>, Exception> {
+        val repositories = amdatuIdePlugin.workspaceIfReady?.getPlugins(RepositoryPlugin::class.java)
+                ?: return@ThrowableComputable emptySet()
 
-    return repositories
-            .flatMap { it.list(null) }
-            .toSortedSet()
+        repositories
+                .flatMap { it.list(null) }
+                .toSortedSet()
+    })
 
 }
 
 fun getBundlesOnlyAvailableInBaselineRepo(project: Project): Set<String> {
     val amdatuIdePlugin = project.getComponent(AmdatuIdeaPlugin::class.java) ?: return emptySet()
 
-    val workspace = amdatuIdePlugin.workspace ?: return emptySet()
+    val workspace = amdatuIdePlugin.workspaceIfReady ?: return emptySet()
 
-    val baselineRepoName = workspace.get(Constants.BASELINEREPO) ?: return emptySet() // no baseline repo
+    return amdatuIdePlugin.runRead(ThrowableComputable<Set<String>, Exception> {
+        val baselineRepoName = workspace.get(Constants.BASELINEREPO)
+                ?: return@ThrowableComputable emptySet() // no baseline repo
 
-    val repositories = workspace.getPlugins(RepositoryPlugin::class.java) ?: return emptySet()
+        val repositories = workspace.getPlugins(RepositoryPlugin::class.java)
+                ?: return@ThrowableComputable emptySet()
 
-    return repositories
-            .filter { it.name == baselineRepoName }
-            .flatMap { it.list(null) }
-            .filter { workspace.getProject(it) == null }
-            .toSet()
+        repositories
+                .filter { it.name == baselineRepoName }
+                .flatMap { it.list(null) }
+                .filter { workspace.getProject(it) == null }
+                .toSet()
+    })
 }
 
 /**
@@ -68,25 +76,34 @@ fun getBundlesOnlyAvailableInBaselineRepo(project: Project): Set<String> {
  *  * Problems with parsing the file
  *
  * @param amdatuIdeaPlugin Amdatu idea plugin instance
+ * @param operation operation to record the validation time per repository for
  */
-fun validateRepoLocations(amdatuIdeaPlugin: AmdatuIdeaPlugin) {
+@JvmOverloads
+fun validateRepoLocations(amdatuIdeaPlugin: AmdatuIdeaPlugin, operation: RefreshStatistics.Operation? = null) {
 
     val workspace = amdatuIdeaPlugin.workspace
     val notificationService = amdatuIdeaPlugin.notificationService
-    val client = workspace.getPlugin(HttpClient::class.java)
 
-    workspace.getPlugins(RepositoryPlugin::class.java)
+    // Only collect the repositories with read access, validating the locations can take a while
+    val (client, repositoryPlugins) = amdatuIdeaPlugin.runRead(
+            ThrowableComputable<Pair<HttpClient, List<RepositoryPlugin>>, Exception> {
+                Pair(workspace.getPlugin(HttpClient::class.java), workspace.getPlugins(RepositoryPlugin::class.java))
+            })
+
+    repositoryPlugins
             .filter { it is OSGiRepository || it is FixedIndexedRepo }
             .filter { it !is LocalIndexedRepo }
             .filter { "Build" != it.name } // Skip this repo that's added by bnd
             .forEach { repositoryPlugin ->
-                for (uriString in repositoryPlugin.location.split(",")) {
-                    val uri = URI.create(uriString)
-
-                    try {
-                        validateRepoLocationUri(uri, notificationService, repositoryPlugin, client)
-                    } catch (e: Exception) {
-                        LOG.error("Exception in repo uri validation: $uri", e)
+                operation?.time(RefreshStatistics.PHASE_VALIDATE_REPO_LOCATIONS, repositoryPlugin.name).use {
+                    for (uriString in repositoryPlugin.location.split(",")) {
+                        val uri = URI.create(uriString)
+
+                        try {
+                            validateRepoLocationUri(uri, notificationService, repositoryPlugin, client)
+                        } catch (e: Exception) {
+                            LOG.error("Exception in repo uri validation: $uri", e)
+                        }
                     }
                 }
             }
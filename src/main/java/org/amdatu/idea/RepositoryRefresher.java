@@ -0,0 +1,288 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import aQute.bnd.repository.maven.provider.MavenBndRepository;
+import aQute.bnd.service.Refreshable;
+import aQute.bnd.service.RepositoryPlugin;
+
+/**
+ * Refreshes the {@link Refreshable} repositories of a workspace concurrently.
+ *
+ * <p>Each repository refresh gets its own timeout that starts when the refresh starts. The refresh of a repository
+ * that times out, or that is still running when the progress indicator is cancelled, is interrupted and the
+ * repository is reported as not refreshed. Refreshes that haven't started yet are skipped. Repositories are refreshed in
+ * place, {@link #refresh(List, ProgressIndicator)} only returns once all refreshes have finished, also the interrupted
+ * ones, so no repository is still changing when the caller continues.
+ */
+class RepositoryRefresher {
+
+    private static final Logger LOG = Logger.getInstance(RepositoryRefresher.class);
+
+    private static final int MAX_CONCURRENT_REFRESHES = 4;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    enum Status {
+        REFRESHED, FAILED, TIMED_OUT, CANCELLED,
+        /**
+         * The repository wasn't refreshed because it hasn't been initialized yet
+         */
+        NOT_INITIALIZED
+    }
+
+    static final class Result {
+
+        private final String myName;
+        private volatile long myStart;
+        private volatile long myDuration;
+        private volatile Status myStatus;
+        private volatile Throwable myError;
+        private Thread myThread;
+
+        private Result(String name) {
+            myName = name;
+        }
+
+        @NotNull
+        String getName() {
+            return myName;
+        }
+
+        /**
+         * Status of the refresh, {@code null} when the refresh hasn't completed.
+         */
+        @Nullable
+        Status getStatus() {
+            return myStatus;
+        }
+
+        long getDurationMillis() {
+            return myDuration;
+        }
+
+        @Nullable
+        Throwable getError() {
+            return myError;
+        }
+
+        private boolean isStarted() {
+            return myStart != 0;
+        }
+
+        /**
+         * Start the refresh on the current thread.
+         *
+         * @return {@code false} when the refresh was cancelled before it started
+         */
+        private synchronized boolean start() {
+            if (myStatus != null) {
+                return false;
+            }
+            myThread = Thread.currentThread();
+            myStart = System.currentTimeMillis();
+            return true;
+        }
+
+        private synchronized void finish() {
+            myThread = null;
+            // Don't leave an interrupt of a timeout or cancellation behind on the pool thread
+            Thread.interrupted();
+        }
+
+        private synchronized void complete(Status status, Throwable error) {
+            if (myStatus != null) {
+                return;
+            }
+            myDuration = isStarted() ? System.currentTimeMillis() - myStart : 0;
+            myError = error;
+            myStatus = status;
+        }
+
+        /**
+         * Complete the refresh with a timeout or cancellation and interrupt it when it is running.
+         */
+        private synchronized void cancel(Status status) {
+            complete(status, null);
+            if (myThread != null) {
+                myThread.interrupt();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return myName + ": " + myStatus + " (" + myDuration + " ms)";
+        }
+    }
+
+    private final long myTimeoutMillis;
+
+    RepositoryRefresher(long timeoutMillis) {
+        myTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Refresh the given repositories, repositories that are not {@link Refreshable} are skipped.
+     *
+     * @return a result for each refreshed repository
+     * @throws ProcessCanceledException when the indicator is cancelled, running refreshes are interrupted
+     */
+    @NotNull
+    List<Result> refresh(@NotNull List<RepositoryPlugin> plugins, @NotNull ProgressIndicator indicator) {
+        List<RepositoryPlugin> refreshables = new ArrayList<>();
+        for (RepositoryPlugin plugin : plugins) {
+            if (plugin instanceof Refreshable) {
+                refreshables.add(plugin);
+            }
+        }
+        if (refreshables.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int threads = Math.min(refreshables.size(), MAX_CONCURRENT_REFRESHES);
+        ExecutorService executor =
+                AppExecutorUtil.createBoundedApplicationPoolExecutor("Bnd Repository Refresh", threads);
+
+        List<Result> results = new ArrayList<>();
+        CountDownLatch finished = new CountDownLatch(refreshables.size());
+        for (RepositoryPlugin plugin : refreshables) {
+            Result result = new Result(plugin.getName());
+            results.add(result);
+            executor.execute(() -> {
+                try {
+                    refresh(plugin, result);
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        try {
+            waitForCompletion(results, indicator);
+        } finally {
+            // The executor is backed by the application pool and doesn't need to be shut down. Refreshes that didn't
+            // complete are cancelled, wait until they are no longer changing their repository.
+            for (Result result : results) {
+                result.cancel(Status.CANCELLED);
+            }
+            awaitFinished(finished, results);
+        }
+        return results;
+    }
+
+    private static void refresh(RepositoryPlugin plugin, Result result) {
+        if (!result.start()) {
+            return;
+        }
+        try {
+            ((Refreshable) plugin).refresh();
+            result.complete(Status.REFRESHED, null);
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Interrupted because of a timeout or cancellation, the status is already set
+                result.complete(Status.CANCELLED, e);
+            } else if (plugin instanceof MavenBndRepository && e instanceof NullPointerException) {
+                // This repo doesn't init until it's used and throws an NPE on refresh
+                // TODO: Report as BND issue (if not already fixed in next)
+                LOG.info("Failed to refresh repository, '" + plugin.getName() + "'", e);
+                result.complete(Status.NOT_INITIALIZED, null);
+            } else {
+                LOG.warn("Failed to refresh repository, '" + plugin.getName() + "'", e);
+                result.complete(Status.FAILED, e);
+            }
+        } finally {
+            result.finish();
+        }
+    }
+
+    /**
+     * Wait until all refresh tasks have returned, a repository that ignores the interrupt is waited for as well.
+     */
+    private void awaitFinished(CountDownLatch finished, List<Result> results) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (finished.await(myTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                    for (Result result : results) {
+                        synchronized (result) {
+                            if (result.myThread != null) {
+                                LOG.warn("Waiting for the interrupted refresh of repository '" + result.getName()
+                                        + "' to finish");
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void waitForCompletion(List<Result> results, ProgressIndicator indicator) {
+        while (true) {
+            indicator.checkCanceled();
+
+            int completed = 0;
+            List<String> running = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            for (Result result : results) {
+                if (result.getStatus() == null && result.isStarted() && now - result.myStart > myTimeoutMillis) {
+                    LOG.warn("Refresh of repository '" + result.getName() + "' timed out after "
+                            + myTimeoutMillis + " ms");
+                    result.cancel(Status.TIMED_OUT);
+                }
+
+                if (result.getStatus() != null) {
+                    completed++;
+                } else if (result.isStarted()) {
+                    running.add(result.getName());
+                }
+            }
+
+            indicator.setFraction((double) completed / results.size());
+            if (completed == results.size()) {
+                return;
+            }
+            indicator.setText2(String.join(", ", running));
+
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessCanceledException(e);
+            }
+        }
+    }
+}
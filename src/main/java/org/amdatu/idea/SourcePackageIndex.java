@@ -0,0 +1,276 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.VirtualFileVisitor;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.util.PathUtil;
+
+/**
+ * Index of the packages containing java sources in source roots (e.g. the source path of a bnd project or the source
+ * roots of a module).
+ *
+ * <p>A source root is refreshed and scanned through the VFS the first time its packages are requested, after that the
+ * index is kept up to date from VFS events. Creating or deleting a java file updates the package it's in, changes to
+ * directories (e.g. moving a package) cause the source root to be scanned again on the next request. The VFS can't be
+ * refreshed synchronously while holding read access (e.g. in an inspection), in that case the source root is scanned on
+ * disk and the result isn't kept as the VFS events for the changes on disk are still to come.
+ */
+public class SourcePackageIndex {
+
+    private static final String JAVA_EXT = "java";
+
+    private final Map<String, Map<String, Integer>> myRoots = new HashMap<>();
+    private long myModificationCount;
+
+    public SourcePackageIndex(Project project) {
+        project.getMessageBus().connect().subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends VFileEvent> events) {
+                handleEvents(events);
+            }
+        });
+    }
+
+    public static SourcePackageIndex getInstance(@NotNull Project project) {
+        return ServiceManager.getService(project, SourcePackageIndex.class);
+    }
+
+    /**
+     * The packages of a bnd project, this are the packages containing java files in the source path of the project.
+     */
+    @NotNull
+    public Set<String> getPackages(@NotNull aQute.bnd.build.Project project) throws Exception {
+        return getPackages(project.getSourcePath());
+    }
+
+    /**
+     * The packages containing java files in the source roots, the default package is included as an empty string.
+     */
+    @NotNull
+    public Set<String> getPackages(@NotNull Collection<File> sourceRoots) {
+        Set<String> packages = new LinkedHashSet<>();
+        for (File sourceRoot : sourceRoots) {
+            packages.addAll(getRootPackages(path(sourceRoot)).keySet());
+        }
+        return packages;
+    }
+
+    private Map<String, Integer> getRootPackages(String root) {
+        boolean refreshAllowed = !ApplicationManager.getApplication().isReadAccessAllowed();
+        long modificationCount;
+        synchronized (this) {
+            Map<String, Integer> packages = myRoots.get(root);
+            if (packages != null) {
+                return new HashMap<>(packages);
+            }
+            modificationCount = myModificationCount;
+        }
+
+        if (!refreshAllowed) {
+            return scanDisk(root);
+        }
+
+        // The source root is scanned without holding the lock, projects are imported concurrently
+        Map<String, Integer> packages = scan(root);
+        synchronized (this) {
+            if (modificationCount == myModificationCount) {
+                myRoots.put(root, packages);
+            }
+        }
+        return new HashMap<>(packages);
+    }
+
+    private static Map<String, Integer> scan(String root) {
+        Map<String, Integer> packages = new HashMap<>();
+        VirtualFile rootDir = LocalFileSystem.getInstance().refreshAndFindFileByPath(root);
+        if (rootDir == null || !rootDir.isDirectory()) {
+            return packages;
+        }
+
+        // The VFS may not have seen changes on disk yet (e.g. a branch switch)
+        VfsUtil.markDirtyAndRefresh(false, true, true, rootDir);
+
+        VfsUtilCore.visitChildrenRecursively(rootDir, new VirtualFileVisitor() {
+            @Override
+            public boolean visitFile(@NotNull VirtualFile file) {
+                if (!file.isDirectory() && JAVA_EXT.equals(file.getExtension())) {
+                    String packageName = getPackageName(root, file.getPath());
+                    if (packageName != null) {
+                        packages.merge(packageName, 1, Integer::sum);
+                    }
+                }
+                return true;
+            }
+        });
+        return packages;
+    }
+
+    private static Map<String, Integer> scanDisk(String root) {
+        Map<String, Integer> packages = new HashMap<>();
+        File rootDir = new File(root);
+        if (!rootDir.isDirectory()) {
+            return packages;
+        }
+
+        FileUtil.processFilesRecursively(rootDir, file -> {
+            if (file.isFile() && JAVA_EXT.equals(FileUtilRt.getExtension(file.getName()))) {
+                String packageName = getPackageName(root, path(file));
+                if (packageName != null) {
+                    packages.merge(packageName, 1, Integer::sum);
+                }
+            }
+            return true;
+        });
+        return packages;
+    }
+
+    private synchronized void handleEvents(List<? extends VFileEvent> events) {
+        if (myRoots.isEmpty()) {
+            return;
+        }
+
+        for (VFileEvent event : events) {
+            if (event instanceof VFileCreateEvent) {
+                VFileCreateEvent createEvent = (VFileCreateEvent) event;
+                added(event.getPath(), createEvent.isDirectory());
+            } else if (event instanceof VFileCopyEvent) {
+                VFileCopyEvent copyEvent = (VFileCopyEvent) event;
+                added(event.getPath(), copyEvent.getFile().isDirectory());
+            } else if (event instanceof VFileDeleteEvent) {
+                removed(event.getPath(), event.getFile().isDirectory());
+            } else if (event instanceof VFileMoveEvent) {
+                VFileMoveEvent moveEvent = (VFileMoveEvent) event;
+                boolean directory = moveEvent.getFile().isDirectory();
+                removed(moveEvent.getOldPath(), directory);
+                added(moveEvent.getNewPath(), directory);
+            } else if (event instanceof VFilePropertyChangeEvent
+                    && ((VFilePropertyChangeEvent) event).isRename()) {
+                VFilePropertyChangeEvent renameEvent = (VFilePropertyChangeEvent) event;
+                String parent = PathUtil.getParentPath(renameEvent.getFile().getPath());
+                boolean directory = renameEvent.getFile().isDirectory();
+                removed(parent + "/" + renameEvent.getOldValue(), directory);
+                added(parent + "/" + renameEvent.getNewValue(), directory);
+            }
+        }
+    }
+
+    private void added(String path, boolean directory) {
+        if (directory) {
+            // Directories created by a VFS refresh are reported without their children
+            invalidate(path);
+        } else {
+            update(path, 1);
+        }
+    }
+
+    private void removed(String path, boolean directory) {
+        if (directory) {
+            invalidate(path);
+        } else {
+            update(path, -1);
+        }
+    }
+
+    private void update(String path, int delta) {
+        if (!JAVA_EXT.equals(PathUtil.getFileExtension(path))) {
+            return;
+        }
+
+        String root = findRoot(path);
+        if (root == null) {
+            return;
+        }
+
+        String packageName = getPackageName(root, path);
+        if (packageName != null) {
+            myModificationCount++;
+            Map<String, Integer> packages = myRoots.get(root);
+            Integer count = packages.merge(packageName, delta, Integer::sum);
+            if (count <= 0) {
+                packages.remove(packageName);
+            }
+        }
+    }
+
+    /**
+     * Remove the root containing the directory and the roots within it.
+     */
+    private void invalidate(String path) {
+        String root = findRoot(path);
+        if (root != null) {
+            myModificationCount++;
+            myRoots.remove(root);
+        }
+        if (myRoots.keySet().removeIf(r -> FileUtil.startsWith(r, path))) {
+            myModificationCount++;
+        }
+    }
+
+    @Nullable
+    private String findRoot(String path) {
+        String dir = path;
+        while (!dir.isEmpty()) {
+            if (myRoots.containsKey(dir)) {
+                return dir;
+            }
+            dir = PathUtil.getParentPath(dir);
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String getPackageName(String root, String path) {
+        String dir = PathUtil.getParentPath(path);
+        if (dir.equals(root)) {
+            return "";
+        }
+        if (!FileUtil.startsWith(dir, root)) {
+            return null;
+        }
+        return dir.substring(root.length() + 1).replace('/', '.');
+    }
+
+    private static String path(File file) {
+        return FileUtil.toSystemIndependentName(file.getAbsolutePath());
+    }
+}
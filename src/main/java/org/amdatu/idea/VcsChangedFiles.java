@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea;
+
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.dvcs.repo.Repository;
+
+/**
+ * Determines the files that differ between two revisions of a VCS repository.
+ *
+ * <p>The diff is created by the {@link VcsChangedFilesProvider} of the VCS of the repository. The plugin only has an
+ * optional dependency on the git integration, when no provider supports the repository (e.g. the git integration is
+ * disabled) the caller falls back to a full refresh of the workspace.
+ */
+public class VcsChangedFiles {
+
+    public enum ChangeType {
+        ADDED, DELETED, MODIFIED
+    }
+
+    private VcsChangedFiles() {
+    }
+
+    /**
+     * Get the files that differ between two revisions.
+     *
+     * @return changed files (system independent absolute paths) and their change type, {@code null} if the changes
+     * could not be determined
+     */
+    @Nullable
+    static Map<String, ChangeType> getChangedFiles(@NotNull Repository repository, @NotNull String fromRevision,
+                                                   @NotNull String toRevision) {
+        for (VcsChangedFilesProvider provider : VcsChangedFilesProvider.EP_NAME.getExtensions()) {
+            Map<String, ChangeType> changedFiles = provider.getChangedFiles(repository, fromRevision, toRevision);
+            if (changedFiles != null) {
+                return changedFiles;
+            }
+        }
+        return null;
+    }
+}
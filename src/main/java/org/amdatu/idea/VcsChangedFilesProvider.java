@@ -0,0 +1,42 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea;
+
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.dvcs.repo.Repository;
+import com.intellij.openapi.extensions.ExtensionPointName;
+
+/**
+ * Determines the files that differ between two revisions of the repositories of a VCS. Providers are registered by
+ * the optional configuration files of the VCS integrations, so they are only loaded when that integration is enabled.
+ */
+public interface VcsChangedFilesProvider {
+    ExtensionPointName<VcsChangedFilesProvider> EP_NAME =
+                    ExtensionPointName.create("org.amdatu.idea.vcs.changedFilesProvider");
+
+    /**
+     * Get the files that differ between two revisions.
+     *
+     * @return changed files (system independent absolute paths) and their change type, {@code null} if the repository
+     * isn't supported by this provider or the changes could not be determined
+     */
+    @Nullable
+    Map<String, VcsChangedFiles.ChangeType> getChangedFiles(@NotNull Repository repository,
+                                                            @NotNull String fromRevision, @NotNull String toRevision);
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea;
+
+import java.util.concurrent.locks.StampedLock;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.util.ThrowableComputable;
+
+/**
+ * Reentrant read / write lock guarding access to the bnd workspace.
+ *
+ * <p>Backed by a {@link StampedLock}, which isn't reentrant by itself. The locks held by the current thread are
+ * tracked so nested read and write sections don't acquire the lock again, a thread holding the write lock can also
+ * enter read sections. Upgrading a read lock to a write lock is not supported as two threads trying to do so would
+ * deadlock.
+ */
+class WorkspaceLock {
+
+    private static final class Holds {
+        private int myReads;
+        private int myWrites;
+        private long myStamp;
+    }
+
+    private final StampedLock myLock = new StampedLock();
+    private final ThreadLocal<Holds> myHolds = ThreadLocal.withInitial(Holds::new);
+
+    <T, E extends Throwable> T read(@NotNull ThrowableComputable<T, E> computable) throws E {
+        Holds holds = myHolds.get();
+        if (holds.myReads > 0 || holds.myWrites > 0) {
+            return runNested(holds, computable);
+        }
+
+        holds.myStamp = myLock.readLock();
+        return runLocked(holds, computable);
+    }
+
+    <T, E extends Throwable> T write(@NotNull ThrowableComputable<T, E> computable) throws E {
+        Holds holds = myHolds.get();
+        if (holds.myWrites > 0) {
+            holds.myWrites++;
+            try {
+                return computable.compute();
+            } finally {
+                holds.myWrites--;
+            }
+        }
+        if (holds.myReads > 0) {
+            throw new IllegalStateException("Write access to the workspace requested while holding read access");
+        }
+
+        holds.myStamp = myLock.writeLock();
+        holds.myWrites++;
+        try {
+            return computable.compute();
+        } finally {
+            holds.myWrites--;
+            myLock.unlockWrite(holds.myStamp);
+            holds.myStamp = 0;
+        }
+    }
+
+    /**
+     * Run the computable with read access if that is possible without waiting.
+     *
+     * <p>The read lock is acquired with {@link StampedLock#tryReadLock()}, which fails right away when the write lock
+     * is held. No optimistic read is used, the computables read bnd workspace state that isn't safe to access while
+     * it is being written, so validating the stamp afterwards would be too late.
+     *
+     * @return the result of the computable, {@code null} if the workspace is being written
+     */
+    @Nullable
+    <T, E extends Throwable> T tryRead(@NotNull ThrowableComputable<T, E> computable) throws E {
+        Holds holds = myHolds.get();
+        if (holds.myReads > 0 || holds.myWrites > 0) {
+            return runNested(holds, computable);
+        }
+
+        long stamp = myLock.tryReadLock();
+        if (stamp == 0) {
+            return null;
+        }
+        holds.myStamp = stamp;
+        return runLocked(holds, computable);
+    }
+
+    private <T, E extends Throwable> T runNested(Holds holds, ThrowableComputable<T, E> computable) throws E {
+        holds.myReads++;
+        try {
+            return computable.compute();
+        } finally {
+            holds.myReads--;
+        }
+    }
+
+    private <T, E extends Throwable> T runLocked(Holds holds, ThrowableComputable<T, E> computable) throws E {
+        holds.myReads++;
+        try {
+            return computable.compute();
+        } finally {
+            holds.myReads--;
+            myLock.unlockRead(holds.myStamp);
+            holds.myStamp = 0;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.build.Workspace;
+import aQute.bnd.osgi.Constants;
+
+/**
+ * Keeps track of the inputs of the bnd projects in a workspace to be able to refresh and re-import only the projects
+ * that are affected by a change in the workspace configuration.
+ *
+ * <p>The inputs of a project are
+ * <ul>
+ * <li>the workspace properties it reads, these are the inherited instructions and headers and all properties that are
+ * referenced using a macro (transitively)</li>
+ * <li>the files that make up the project properties, the project bnd file and all files it includes</li>
+ * </ul>
+ */
+class WorkspaceRefreshEngine {
+
+    private static final Logger LOG = Logger.getInstance(WorkspaceRefreshEngine.class);
+
+    private static final Pattern MACRO_REFERENCE = Pattern.compile("\\$[{(\\[<\u00ab\u2039]([-\\w.@]+)");
+
+    private Map<String, String> myWorkspaceProperties;
+    private final Map<String, ProjectInputs> myProjectInputs = new HashMap<>();
+
+    /**
+     * Record the current workspace properties and the inputs of all projects in the workspace.
+     */
+    synchronized void recordWorkspace(@NotNull Workspace workspace) {
+        myWorkspaceProperties = rawProperties(workspace.getProperties());
+        myProjectInputs.clear();
+        try {
+            recordProjects(workspace.getAllProjects());
+        } catch (Exception e) {
+            LOG.warn("Failed to record project inputs", e);
+        }
+    }
+
+    /**
+     * Record the inputs of the given projects, used after the projects have been refreshed.
+     */
+    synchronized void recordProjects(@NotNull Collection<Project> projects) {
+        if (myWorkspaceProperties == null) {
+            return;
+        }
+        for (Project project : projects) {
+            if (project != null) {
+                myProjectInputs.put(project.getName(), new ProjectInputs(project, myWorkspaceProperties));
+            }
+        }
+    }
+
+    /**
+     * Determine the projects affected by changes in the (already refreshed) workspace since the last time the
+     * workspace was recorded.
+     *
+     * @return names of the projects that need to be refreshed, or {@code null} in case nothing was recorded yet and all
+     * projects have to be considered stale.
+     */
+    synchronized Set<String> getStaleProjects(@NotNull Workspace workspace) throws Exception {
+        if (myWorkspaceProperties == null) {
+            return null;
+        }
+
+        Map<String, String> properties = rawProperties(workspace.getProperties());
+        Set<String> changedKeys = new HashSet<>();
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            if (!Objects.equals(entry.getValue(), myWorkspaceProperties.get(entry.getKey()))) {
+                changedKeys.add(entry.getKey());
+            }
+        }
+        for (String key : myWorkspaceProperties.keySet()) {
+            if (!properties.containsKey(key)) {
+                changedKeys.add(key);
+            }
+        }
+        LOG.info("Changed workspace properties: " + changedKeys);
+
+        Set<String> staleProjects = new LinkedHashSet<>();
+        for (Project project : workspace.getAllProjects()) {
+            ProjectInputs inputs = myProjectInputs.get(project.getName());
+            if (inputs == null || inputs.isStale(changedKeys)) {
+                staleProjects.add(project.getName());
+            }
+        }
+        return staleProjects;
+    }
+
+    @NotNull
+    private static Map<String, String> rawProperties(@NotNull Properties properties) {
+        Map<String, String> result = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            result.put(key, properties.getProperty(key));
+        }
+        return result;
+    }
+
+    /**
+     * Workspace properties that are used by a project even if they are not referenced from a macro. This are the
+     * instructions (-buildpath etc.), manifest headers, and some plain properties used by bnd and the importer.
+     */
+    private static boolean isImplicitlyRead(String key) {
+        if (key.isEmpty()) {
+            return false;
+        }
+        return key.charAt(0) == '-'
+                || Character.isUpperCase(key.charAt(0))
+                || key.startsWith("java")
+                || key.equals(Constants.DEFAULT_PROP_SRC_DIR)
+                || key.equals(Constants.DEFAULT_PROP_BIN_DIR)
+                || key.equals(Constants.DEFAULT_PROP_TESTSRC_DIR)
+                || key.equals(Constants.DEFAULT_PROP_TESTBIN_DIR)
+                || key.equals(Constants.DEFAULT_PROP_TARGET_DIR);
+    }
+
+    private static void collectMacroReferences(String value, Collection<String> references) {
+        if (value == null || value.indexOf('$') < 0) {
+            return;
+        }
+        Matcher matcher = MACRO_REFERENCE.matcher(value);
+        while (matcher.find()) {
+            references.add(matcher.group(1));
+        }
+    }
+
+    private static final class ProjectInputs {
+
+        private final Set<String> myReadKeys;
+        private final Map<String, Long> myFileStamps = new HashMap<>();
+
+        ProjectInputs(Project project, Map<String, String> workspaceProperties) {
+            Properties properties = project.getProperties();
+
+            // Only the properties set on the project itself, inherited properties are available as defaults.
+            Set<String> localKeys = new HashSet<>();
+            Deque<String> references = new ArrayDeque<>();
+            for (Object key : Collections.list(properties.keys())) {
+                localKeys.add((String) key);
+                Object value = properties.get(key);
+                collectMacroReferences(value instanceof String ? (String) value : null, references);
+            }
+
+            Set<String> readKeys = new HashSet<>();
+            for (Map.Entry<String, String> entry : workspaceProperties.entrySet()) {
+                if (!localKeys.contains(entry.getKey()) && isImplicitlyRead(entry.getKey())) {
+                    readKeys.add(entry.getKey());
+                    collectMacroReferences(entry.getValue(), references);
+                }
+            }
+
+            while (!references.isEmpty()) {
+                String key = references.pop();
+                if (!localKeys.contains(key) && workspaceProperties.containsKey(key) && readKeys.add(key)) {
+                    collectMacroReferences(workspaceProperties.get(key), references);
+                }
+            }
+            myReadKeys = readKeys;
+
+            addFileStamp(project.getPropertiesFile());
+            List<File> included = project.getIncluded();
+            if (included != null) {
+                included.forEach(this::addFileStamp);
+            }
+        }
+
+        private void addFileStamp(File file) {
+            if (file != null) {
+                myFileStamps.put(file.getAbsolutePath(), file.exists() ? file.lastModified() : -1L);
+            }
+        }
+
+        boolean isStale(Set<String> changedKeys) {
+            for (String key : changedKeys) {
+                if (myReadKeys.contains(key)) {
+                    return true;
+                }
+            }
+            for (Map.Entry<String, Long> entry : myFileStamps.entrySet()) {
+                File file = new File(entry.getKey());
+                long stamp = file.exists() ? file.lastModified() : -1L;
+                if (stamp != entry.getValue()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.git;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.amdatu.idea.VcsChangedFiles.ChangeType;
+import org.amdatu.idea.VcsChangedFilesProvider;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.dvcs.repo.Repository;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+
+import git4idea.changes.GitChangeUtils;
+import git4idea.repo.GitRepository;
+
+/**
+ * Changed files of git repositories, registered in {@code git-support.xml} which is only loaded when the git
+ * integration is enabled.
+ */
+public class GitChangedFilesProvider implements VcsChangedFilesProvider {
+
+    private static final Logger LOG = Logger.getInstance(GitChangedFilesProvider.class);
+
+    @Nullable
+    @Override
+    public Map<String, ChangeType> getChangedFiles(@NotNull Repository repository, @NotNull String fromRevision,
+                                                   @NotNull String toRevision) {
+        if (!(repository instanceof GitRepository)) {
+            return null;
+        }
+
+        try {
+            Collection<Change> changes = GitChangeUtils.getDiff(repository.getProject(), repository.getRoot(),
+                    fromRevision, toRevision, null);
+            if (changes == null) {
+                return null;
+            }
+
+            Map<String, ChangeType> changedFiles = new LinkedHashMap<>();
+            for (Change change : changes) {
+                ContentRevision before = change.getBeforeRevision();
+                ContentRevision after = change.getAfterRevision();
+                switch (change.getType()) {
+                    case NEW:
+                        changedFiles.put(after.getFile().getPath(), ChangeType.ADDED);
+                        break;
+                    case DELETED:
+                        changedFiles.put(before.getFile().getPath(), ChangeType.DELETED);
+                        break;
+                    case MOVED:
+                        // A moved file is a removal of the old and an addition of the new path
+                        changedFiles.put(before.getFile().getPath(), ChangeType.DELETED);
+                        changedFiles.put(after.getFile().getPath(), ChangeType.ADDED);
+                        break;
+                    default:
+                        changedFiles.put(after.getFile().getPath(), ChangeType.MODIFIED);
+                }
+            }
+            return changedFiles;
+        } catch (VcsException e) {
+            LOG.info("Failed to determine changed files between " + fromRevision + " and " + toRevision, e);
+            return null;
+        }
+    }
+}
@@ -16,23 +16,30 @@
 package org.amdatu.idea.imp;
 
 import java.io.File;
-import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.Manifest;
-import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import org.amdatu.idea.AmdatuIdeaPlugin;
+import org.amdatu.idea.InstructionMatcher;
+import org.amdatu.idea.JarPackageIndex;
+import org.amdatu.idea.RefreshStatistics;
+import org.amdatu.idea.SourcePackageIndex;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.model.java.compiler.JpsJavaCompilerOptions;
@@ -47,6 +54,7 @@ import com.intellij.openapi.module.ModifiableModuleModel;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.module.StdModuleTypes;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.projectRoots.JavaSdk;
@@ -60,12 +68,10 @@ import com.intellij.openapi.roots.ExportableOrderEntry;
 import com.intellij.openapi.roots.JdkOrderEntry;
 import com.intellij.openapi.roots.LanguageLevelModuleExtension;
 import com.intellij.openapi.roots.LanguageLevelProjectExtension;
-import com.intellij.openapi.roots.LibraryOrderEntry;
 import com.intellij.openapi.roots.ModifiableRootModel;
 import com.intellij.openapi.roots.ModuleJdkOrderEntry;
 import com.intellij.openapi.roots.ModuleOrderEntry;
 import com.intellij.openapi.roots.ModuleRootManager;
-import com.intellij.openapi.roots.ModuleRootModel;
 import com.intellij.openapi.roots.ModuleRootModificationUtil;
 import com.intellij.openapi.roots.ModuleSourceOrderEntry;
 import com.intellij.openapi.roots.OrderEntry;
@@ -74,7 +80,10 @@ import com.intellij.openapi.roots.impl.ModifiableModelCommitter;
 import com.intellij.openapi.roots.impl.libraries.ProjectLibraryTable;
 import com.intellij.openapi.roots.libraries.Library;
 import com.intellij.openapi.roots.libraries.LibraryTable;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.UserDataHolderEx;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.openapi.util.text.StringUtil;
@@ -84,6 +93,8 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.pom.java.LanguageLevel;
 import com.intellij.util.PathUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.containers.ContainerUtil;
 
 import aQute.bnd.build.Container;
@@ -93,8 +104,9 @@ import aQute.bnd.build.Workspace;
 import aQute.bnd.header.Parameters;
 import aQute.bnd.osgi.Builder;
 import aQute.bnd.osgi.Constants;
-import aQute.bnd.osgi.Instructions;
 import aQute.bnd.osgi.Jar;
+import aQute.lib.hex.Hex;
+import aQute.lib.json.JSONCodec;
 import static org.amdatu.idea.i18n.OsmorcBundle.message;
 
 public class BndProjectImporter {
@@ -102,11 +114,30 @@ public class BndProjectImporter {
     private static final Logger LOG = Logger.getInstance(BndProjectImporter.class);
 
     private static final String IDEA_TMP_GENERATED = ".idea-tmp-generated";
+    private static final String HASH_EXT = ".sha1";
     private static final String BND_LIB_PREFIX = "bnd:";
     private static final String BND_EXPORTED_CONTENTS_PREFIX = "bnd-exported:";
     private static final String SRC_ROOT = "OSGI-OPT/src";
     private static final String JDK_DEPENDENCY = "ee.j2se";
 
+    /**
+     * Instructions that determine the content of a generated exported content jar
+     */
+    private static final List<String> EXPORTED_CONTENT_INSTRUCTIONS = Arrays.asList(Constants.EXPORT_PACKAGE,
+            Constants.PRIVATE_PACKAGE, Constants.PRIVATEPACKAGE, Constants.CONDITIONAL_PACKAGE,
+            Constants.CONDITIONALPACKAGE);
+
+    private static final ExecutorService EXPORTED_CONTENT_EXECUTOR =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("Bnd Exported Content",
+                    Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Maximum number of modules updated in a single write action
+     */
+    private static final int MODULE_CHUNK_SIZE = 25;
+
+    private static final Key<Map<String, String>> MODULE_FINGERPRINTS = Key.create("amdatu.module.fingerprints");
+
     private static final Comparator<OrderEntry> ORDER_ENTRY_COMPARATOR = new Comparator<OrderEntry>() {
         @Override
         public int compare(OrderEntry o1, OrderEntry o2) {
@@ -127,11 +158,34 @@ public class BndProjectImporter {
     private final com.intellij.openapi.project.Project myProject;
     private final Collection<Project> myProjects;
     private final Map<String, String> mySourcesMap = ContainerUtil.newTroveMap(FileUtil.PATH_HASHING_STRATEGY);
+    private final List<ResolvedProject> myResolvedProjects = ContainerUtil.newArrayList();
+    private final Map<String, List<InstructionMatcher>> myExportPackageMatchers = ContainerUtil.newConcurrentMap();
+
+    /**
+     * Fingerprint of the workspace before resolving, the resolved projects are stored in the workspace snapshot when
+     * set.
+     */
+    private String mySnapshotFingerprint;
+    private boolean myReplaceSnapshot;
+
+    /**
+     * Checkpoints of the previous import that didn't complete cleanly, loaded when resolving
+     */
+    private ImportCheckpoints myCheckpoints;
+    private Map<Project, String> myCheckpointFingerprints = Collections.emptyMap();
+
+    /**
+     * Names of the imported projects that failed to resolve, or resolved with errors
+     */
+    private final Set<String> myFailedProjects = ContainerUtil.newConcurrentSet();
+
+    private final RefreshStatistics.Operation myOperation;
 
     public BndProjectImporter(@NotNull com.intellij.openapi.project.Project project,
                               @NotNull Collection<Project> toImport) {
         myProject = project;
         myProjects = toImport;
+        myOperation = RefreshStatistics.getInstance(project).start(RefreshStatistics.IMPORT);
     }
 
     @NotNull
@@ -149,20 +203,27 @@ public class BndProjectImporter {
         AmdatuIdeaPlugin amdatuIdeaPlugin= myProject.getComponent(AmdatuIdeaPlugin.class);
         Workspace workspace = amdatuIdeaPlugin.getWorkspace();
 
-        LanguageLevel sourceLevel = LanguageLevel.parse(workspace.getProperty(Constants.JAVAC_SOURCE));
-        if (sourceLevel != null) {
-            LanguageLevelProjectExtension.getInstance(myProject).setLanguageLevel(sourceLevel);
-        }
+        // Called on the EDT, the settings are applied by the next import when the workspace is being refreshed
+        Boolean applied = amdatuIdeaPlugin.tryRunRead(() -> {
+            LanguageLevel sourceLevel = LanguageLevel.parse(workspace.getProperty(Constants.JAVAC_SOURCE));
+            if (sourceLevel != null) {
+                LanguageLevelProjectExtension.getInstance(myProject).setLanguageLevel(sourceLevel);
+            }
 
-        String targetLevel = workspace.getProperty(Constants.JAVAC_TARGET);
-        CompilerConfiguration.getInstance(myProject).setProjectBytecodeTarget(targetLevel);
+            String targetLevel = workspace.getProperty(Constants.JAVAC_TARGET);
+            CompilerConfiguration.getInstance(myProject).setProjectBytecodeTarget(targetLevel);
 
-        // compilation options (see Project#getCommonJavac())
-        JpsJavaCompilerOptions javacOptions = JavacConfiguration.getOptions(myProject, JavacConfiguration.class);
+            // compilation options (see Project#getCommonJavac())
+            JpsJavaCompilerOptions javacOptions = JavacConfiguration.getOptions(myProject, JavacConfiguration.class);
 
-        javacOptions.DEBUGGING_INFO = booleanProperty(workspace.getProperty("javac.debug", "true"));
-        javacOptions.DEPRECATION = booleanProperty(workspace.getProperty("java.deprecation"));
-        javacOptions.ADDITIONAL_OPTIONS_STRING = workspace.getProperty("java.options", "");
+            javacOptions.DEBUGGING_INFO = booleanProperty(workspace.getProperty("javac.debug", "true"));
+            javacOptions.DEPRECATION = booleanProperty(workspace.getProperty("java.deprecation"));
+            javacOptions.ADDITIONAL_OPTIONS_STRING = workspace.getProperty("java.options", "");
+            return true;
+        });
+        if (applied == null) {
+            LOG.info("Workspace is being refreshed, project settings not updated");
+        }
     }
 
     public void resolve(boolean refresh) {
@@ -171,12 +232,10 @@ public class BndProjectImporter {
                 @Override
                 public void run(@NotNull ProgressIndicator indicator) {
                     if (resolve(indicator)) {
-                        ApplicationManager.getApplication().invokeLater(() -> {
-                            createProjectStructure();
-                            if (refresh) {
-                                VirtualFileManager.getInstance().asyncRefresh(null);
-                            }
-                        }, BndProjectImporter.this.myProject.getDisposed());
+                        createProjectStructure();
+                        if (refresh) {
+                            VirtualFileManager.getInstance().asyncRefresh(null);
+                        }
                     }
                 }
             }.queue();
@@ -186,34 +245,225 @@ public class BndProjectImporter {
         }
     }
 
+    /**
+     * Prepare and resolve the projects. Projects are prepared concurrently in dependency order, a project is only
+     * prepared after the projects it depends on have been prepared as preparing a project also prepares its
+     * dependencies. Projects that are only a dependency of the imported projects are prepared but not resolved.
+     *
+     * <p>Projects that fail to prepare are resolved as far as possible and imported in a degraded state. The projects
+     * that did resolve are checkpointed when the import is cancelled or has failures, the next import only resolves
+     * the projects that failed or changed.
+     *
+     * @return {@code false} when the import was cancelled
+     */
     private boolean resolve(@Nullable ProgressIndicator indicator) {
-        int progress = 0;
+        AmdatuIdeaPlugin amdatuIdeaPlugin = myProject.getComponent(AmdatuIdeaPlugin.class);
+        Workspace workspace = amdatuIdeaPlugin.getWorkspace();
+        assert workspace != null : myProject;
+
+        ProjectDependencyGraph graph =
+                amdatuIdeaPlugin.runRead(() -> ProjectDependencyGraph.build(workspace, myProjects));
+
+        myCheckpoints = ImportCheckpoints.load(myProject);
+        try {
+            myCheckpointFingerprints =
+                    amdatuIdeaPlugin.runRead(() -> ImportCheckpoints.fingerprints(workspace, graph));
+        } catch (Exception e) {
+            LOG.warn("Failed to calculate checkpoint fingerprints, resolving all projects", e);
+        }
+
+        Set<Project> toResolve = ContainerUtil.newHashSet(myProjects);
+        Map<Project, Integer> pendingDependencies = ContainerUtil.newHashMap();
+        Map<Project, List<Project>> dependents = ContainerUtil.newHashMap();
+        List<Project> ready = ContainerUtil.newArrayList();
+        for (Project project : graph.getProjects()) {
+            Set<Project> dependencies = graph.getDependencies(project);
+            pendingDependencies.put(project, dependencies.size());
+            for (Project dependency : dependencies) {
+                dependents.computeIfAbsent(dependency, p -> ContainerUtil.newArrayList()).add(project);
+            }
+            if (dependencies.isEmpty()) {
+                ready.add(project);
+            }
+        }
+
+        Map<Project, ResolvedProject> resolvedProjects = ContainerUtil.newConcurrentMap();
+        ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Bnd Project Resolve",
+                Math.max(1, Math.min(graph.getProjects().size(), Runtime.getRuntime().availableProcessors())));
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<Boolean>, Project> running = ContainerUtil.newHashMap();
+
+        int completed = 0;
+        boolean cancelled = true;
+        try {
+            while (completed < graph.getProjects().size()) {
+                if (ready.isEmpty() && running.isEmpty()) {
+                    // Only projects with cyclic dependencies are left, bnd reports the cycle when preparing
+                    pendingDependencies.entrySet().stream()
+                            .filter(entry -> entry.getValue() > 0)
+                            .findFirst()
+                            .ifPresent(entry -> {
+                                entry.setValue(0);
+                                ready.add(entry.getKey());
+                            });
+                }
+                for (Project project : ready) {
+                    boolean imported = toResolve.contains(project);
+                    running.put(completionService.submit(
+                            () -> resolve(amdatuIdeaPlugin, project, imported, resolvedProjects, indicator)), project);
+                }
+                ready.clear();
+
+                Future<Boolean> future = poll(completionService, indicator);
+                if (future == null) {
+                    continue;
+                }
+                Project project = running.remove(future);
+                try {
+                    if (!future.get()) {
+                        return false;
+                    }
+                } catch (ExecutionException e) {
+                    LOG.error("Failed to resolve project " + project.getName(), e.getCause());
+                    if (toResolve.contains(project)) {
+                        myFailedProjects.add(project.getName());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ProcessCanceledException(e);
+                }
+
+                completed++;
+                pendingDependencies.remove(project);
+                for (Project dependent : dependents.getOrDefault(project, Collections.emptyList())) {
+                    Integer pending = pendingDependencies.get(dependent);
+                    if (pending != null && pending > 0) {
+                        pendingDependencies.put(dependent, pending - 1);
+                        if (pending == 1) {
+                            ready.add(dependent);
+                        }
+                    }
+                }
+
+                if (indicator != null) {
+                    indicator.setText(project.getName());
+                    indicator.setFraction((double) completed / graph.getProjects().size());
+                }
+            }
+            cancelled = false;
+        } finally {
+            // The executor is backed by the application pool and doesn't need to be shut down
+            for (Future<Boolean> future : running.keySet()) {
+                future.cancel(true);
+            }
+            if (cancelled) {
+                // Keep the projects resolved so far for the next import
+                myCheckpoints.save(myProject);
+            }
+        }
+
         for (Project project : myProjects) {
-            LOG.info("resolving: " + project.getBase());
+            ResolvedProject resolvedProject = resolvedProjects.get(project);
+            if (resolvedProject != null) {
+                myResolvedProjects.add(resolvedProject);
+            }
+        }
+        if (!myFailedProjects.isEmpty()) {
+            amdatuIdeaPlugin.getNotificationService().warning("Imported projects with errors: "
+                    + String.join(", ", new TreeSet<>(myFailedProjects)));
+        }
+        // The checkpoints are removed once the modules of their projects have been committed
+        myCheckpoints.save(myProject);
+
+        JarSourcesCache.getInstance().save();
+        JarPackageIndex.getInstance(myProject).save();
+        return true;
+    }
+
+    @Nullable
+    private static Future<Boolean> poll(CompletionService<Boolean> completionService,
+                                        @Nullable ProgressIndicator indicator) {
+        if (indicator != null) {
+            indicator.checkCanceled();
+        }
+        try {
+            return completionService.poll(100, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessCanceledException(e);
+        }
+    }
+
+    /**
+     * Prepare a single project, called concurrently for projects that don't depend on each other.
+     *
+     * @param resolve whether to resolve the project, {@code false} for projects that are only prepared because
+     *                projects that are imported depend on them
+     * @return {@code false} when the import was cancelled
+     */
+    private boolean resolve(AmdatuIdeaPlugin amdatuIdeaPlugin, Project project, boolean resolve,
+                            Map<Project, ResolvedProject> resolvedProjects, @Nullable ProgressIndicator indicator) {
+        if (indicator != null && indicator.isCanceled()) {
+            return false;
+        }
 
-            if (indicator != null) {
-                indicator.checkCanceled();
-                indicator.setText(project.getName());
+        String fingerprint = myCheckpointFingerprints.get(project);
+        if (resolve && fingerprint != null) {
+            ResolvedProject checkpoint = myCheckpoints.get(project.getName(), fingerprint);
+            if (checkpoint != null) {
+                LOG.info("resolved from checkpoint: " + project.getBase());
+                resolvedProjects.put(project, checkpoint);
+                return true;
             }
+        }
+        LOG.info("resolving: " + project.getBase());
 
-            AmdatuIdeaPlugin amdatuIdeaPlugin = myProject.getComponent(AmdatuIdeaPlugin.class);
-            try {
+        // Read access is acquired per project, a workspace refresh doesn't have to wait for the whole import
+        return amdatuIdeaPlugin.runRead(() -> {
+            boolean prepared = false;
+            try (RefreshStatistics.Timer ignored =
+                         myOperation.time(RefreshStatistics.PHASE_PREPARE, project.getName())) {
                 project.prepare();
+                prepared = true;
             } catch (Exception e) {
                 LOG.warn(e);
-                return false;
+                project.exception(e, "Failed to prepare project %s", project.getName());
             } finally {
-                amdatuIdeaPlugin.getNotificationService().report(project, true);
+                if (resolve) {
+                    amdatuIdeaPlugin.getNotificationService().report(project, true);
+                }
             }
 
-            findSources(project);
+            if (!resolve) {
+                return true;
+            }
 
-            if (indicator != null) {
-                indicator.setFraction((double) (++progress) / myProjects.size());
+            if (prepared) {
+                try (RefreshStatistics.Timer ignored =
+                             myOperation.time(RefreshStatistics.PHASE_FIND_SOURCES, project.getName())) {
+                    findSources(project);
+                }
             }
-        }
 
-        return true;
+            ResolvedProject resolvedProject;
+            try {
+                resolvedProject = resolveProject(project, !prepared);
+            } catch (Exception e) {
+                LOG.error("Failed to resolve project " + project.getName(), e);
+                myFailedProjects.add(project.getName());
+                myCheckpoints.remove(project.getName());
+                return true;
+            }
+            resolvedProjects.put(project, resolvedProject);
+
+            if (prepared && project.isOk() && fingerprint != null) {
+                myCheckpoints.put(project.getName(), fingerprint, resolvedProject);
+            } else {
+                myFailedProjects.add(project.getName());
+                myCheckpoints.remove(project.getName());
+            }
+            return true;
+        });
     }
 
     private void findSources(Project project) {
@@ -232,79 +482,384 @@ public class BndProjectImporter {
                 File file = dependency.getFile();
                 if (file.isFile() && FileUtilRt.extensionEquals(file.getName(), "jar")) {
                     String path = file.getPath();
-                    if (!mySourcesMap.containsKey(path)) {
-                        try {
-                            try (ZipFile zipFile = new ZipFile(file)) {
-                                ZipEntry srcRoot = zipFile.getEntry(SRC_ROOT);
-                                if (srcRoot != null) {
-                                    mySourcesMap.put(path, SRC_ROOT);
-                                }
-                            }
-                        } catch (IOException e) {
-                            mySourcesMap.put(path, null);
+                    synchronized (mySourcesMap) {
+                        if (mySourcesMap.containsKey(path)) {
+                            continue;
                         }
                     }
+                    // Projects are resolved concurrently, the cache is accessed without holding the lock
+                    String sourceRoot = JarSourcesCache.getInstance().getSourceRoot(file, SRC_ROOT);
+                    synchronized (mySourcesMap) {
+                        mySourcesMap.put(path, sourceRoot);
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Resolve a project.
+     *
+     * @param degraded whether preparing the project failed, the classpath and exported contents are resolved as far as
+     *                 possible in that case
+     */
+    private ResolvedProject resolveProject(Project project, boolean degraded) throws Exception {
+        ResolvedProject resolvedProject = new ResolvedProject();
+        resolvedProject.name = project.getName();
+        resolvedProject.base = project.getBase().getPath();
+        resolvedProject.degraded = degraded;
+
+        for (File src : project.getSourcePath()) {
+            resolvedProject.sourcePath.add(src.getPath());
+        }
+        File testSrc = project.getTestSrc();
+        if (testSrc != null) {
+            resolvedProject.testSrc = testSrc.getPath();
+        }
+        resolvedProject.target = project.getTarget().getPath();
+        resolvedProject.srcOutput = project.getSrcOutput().getPath();
+        resolvedProject.testOutput = project.getTestOutput().getPath();
+
+        resolvedProject.javacSource = project.getProperty(Constants.JAVAC_SOURCE);
+        resolvedProject.javacTarget = project.getProperty(Constants.JAVAC_TARGET);
+
+        Set<Container> bootSet = ContainerUtil.newHashSet();
+        resolveStep(project, degraded, () -> {
+            Collection<Container> boot = project.getBootclasspath();
+            resolveContainers(project, boot, Collections.emptySet(), resolvedProject.bootclasspath);
+            bootSet.addAll(boot);
+        });
+        resolveStep(project, degraded,
+                () -> resolveContainers(project, project.getBuildpath(), bootSet, resolvedProject.buildpath));
+        resolveStep(project, degraded,
+                () -> resolveContainers(project, project.getTestpath(), bootSet, resolvedProject.testpath));
+        resolveStep(project, degraded, () -> resolveExportedContents(project, resolvedProject.exportedContents));
+
+        return resolvedProject;
+    }
+
+    /**
+     * Run a step of resolving a project, failures are ignored when resolving a degraded project.
+     */
+    private static void resolveStep(Project project, boolean degraded, ThrowableRunnable<Exception> step)
+            throws Exception {
+        try {
+            step.run();
+        } catch (Exception e) {
+            if (!degraded) {
+                throw e;
+            }
+            LOG.debug("Failed to resolve degraded project " + project.getName(), e);
+        }
+    }
+
+    private void resolveContainers(Project project,
+                                   Collection<Container> classpath,
+                                   Set<Container> excluded,
+                                   List<ResolvedProject.ResolvedContainer> resolvedContainers) {
+        for (Container dependency : classpath) {
+            if (excluded.contains(dependency)) {
+                continue;  // skip boot path dependency
+            }
+            if (dependency.getType() == Container.TYPE.PROJECT && project == dependency.getProject()) {
+                continue;  // skip self-reference
+            }
+
+            ResolvedProject.ResolvedContainer container = new ResolvedProject.ResolvedContainer();
+            container.type = dependency.getType();
+            container.bsn = dependency.getBundleSymbolicName();
+            container.version = dependency.getVersion();
+            container.file = dependency.getFile().getPath();
+            if (dependency.getType() == Container.TYPE.PROJECT) {
+                container.project = dependency.getProject().getName();
+                // Check if the project is exporting contents from the dependency, in that case the dependency
+                // is marked as exported.
+                container.exported = isExportingDependencyModulePackage(project, dependency.getProject());
+            } else {
+                synchronized (mySourcesMap) {
+                    container.sourceRoot = mySourcesMap.get(container.file);
+                }
+            }
+            resolvedContainers.add(container);
+        }
+    }
+
+    private void resolveExportedContents(Project project, List<ResolvedProject.ExportedContent> exportedContents) {
+        try {
+            ProjectBuilder builder = project.getBuilder(null);
+
+            // The jars for the sub-bundles are generated concurrently, null for sub-bundles not exporting content
+            List<Future<File>> jars = ContainerUtil.newArrayList();
+            for (Builder subBuilder : builder.getSubBuilders()) {
+                if (isExportingBuildpathContent(project, subBuilder)) {
+                    String hash = exportedContentHash(project, subBuilder);
+                    jars.add(EXPORTED_CONTENT_EXECUTOR.submit(
+                            () -> generateExportedContentJar(project, subBuilder, hash)));
+                } else {
+                    jars.add(null);
+                }
+            }
+
+            Set<File> usedJars = ContainerUtil.newHashSet();
+            for (Future<File> jar : jars) {
+                ResolvedProject.ExportedContent exportedContent = new ResolvedProject.ExportedContent();
+                exportedContent.libraryName = BND_EXPORTED_CONTENTS_PREFIX + builder.getBsn();
+                if (jar != null) {
+                    File file = jar.get();
+                    exportedContent.jar = file.getPath();
+                    usedJars.add(file);
+                }
+                exportedContents.add(exportedContent);
+            }
+
+            removeUnusedExportedContentJars(project, usedJars);
+        } catch (Exception e) {
+            LOG.error("Failed to create exported content libraries", e);
+        }
+    }
+
+    /**
+     * Create or update the modules for the resolved projects, can be called from any thread.
+     *
+     * <p>The fingerprints of the resolved projects are calculated on the calling thread. The module structure is then
+     * updated in a number of short write actions on the EDT, other events are processed in between:
+     * <ol>
+     * <li>modules for projects that no longer exist are removed, modules for new projects and the exported content
+     * libraries of the changed projects are created</li>
+     * <li>the root models of the changed modules are updated in chunks of {@link #MODULE_CHUNK_SIZE} modules</li>
+     * <li>libraries that are no longer used are removed</li>
+     * </ol>
+     */
     private void createProjectStructure() {
         if (myProject.isDisposed()) {
             return;
         }
 
-        ApplicationManager.getApplication().runWriteAction(() -> {
-            LanguageLevel projectLevel = LanguageLevelProjectExtension.getInstance(myProject).getLanguageLevel();
-            Map<Project, ModifiableRootModel> rootModels = ContainerUtil.newHashMap();
-            ModifiableModuleModel moduleModel = ModuleManager.getInstance(myProject).getModifiableModel();
-            LibraryTable.ModifiableModel libraryModel = ProjectLibraryTable.getInstance(myProject).getModifiableModel();
-            try {
-                // Remove modules that no longer exist
-                for (Module module : moduleModel.getModules()) {
-                    String moduleDir = PathUtil.getParentPath(module.getModuleFilePath());
-                    if (moduleDir.equals(myProject.getBasePath())) {
-                        // Don't remove the root module.
-                        continue;
-                    }
-                    VirtualFile bndFile = LocalFileSystem.getInstance().findFileByPath(moduleDir + "/bnd.bnd");
-                    if (bndFile == null || !bndFile.exists()) {
-                        moduleModel.disposeModule(module);
-                    }
+        LanguageLevel projectLevel = LanguageLevelProjectExtension.getInstance(myProject).getLanguageLevel();
+        Map<String, String> moduleFingerprints = getModuleFingerprints(myProject);
+        Map<String, String> fingerprints = ContainerUtil.newHashMap();
+        List<ResolvedProject> changedProjects = ContainerUtil.newArrayList();
+        Map<String, ResolvedProject> projectsByName = ContainerUtil.newHashMap();
+        for (ResolvedProject project : myResolvedProjects) {
+            projectsByName.put(project.name, project);
+        }
+        for (ResolvedProject project : myResolvedProjects) {
+            // Only modules of which the resolved project has changed since the previous import are updated
+            String fingerprint = fingerprint(project, projectsByName, projectLevel);
+            fingerprints.put(project.name, fingerprint);
+            if (fingerprint == null || !fingerprint.equals(moduleFingerprints.get(project.name))) {
+                changedProjects.add(project);
+            }
+        }
+
+        runOnEdt(() -> {
+            List<ResolvedProject> toUpdate;
+            try (RefreshStatistics.Timer ignored =
+                         myOperation.time(RefreshStatistics.PHASE_CREATE_PROJECT_STRUCTURE)) {
+                toUpdate = ApplicationManager.getApplication().runWriteAction(
+                        (Computable<List<ResolvedProject>>) () -> updateModules(changedProjects));
+            }
+            LOG.info("Updating " + toUpdate.size() + " of " + myResolvedProjects.size() + " modules");
+            updateRootModels(toUpdate, 0, projectLevel, fingerprints);
+        });
+    }
+
+    /**
+     * Remove the modules for projects that no longer exist, create modules for new projects and create or update the
+     * exported content libraries of the changed projects.
+     *
+     * @return the projects of which the module needs to be updated, the changed and new projects
+     */
+    private List<ResolvedProject> updateModules(List<ResolvedProject> changedProjects) {
+        List<ResolvedProject> toUpdate = ContainerUtil.newArrayList(changedProjects);
+        ModifiableModuleModel moduleModel = ModuleManager.getInstance(myProject).getModifiableModel();
+        try {
+            // Remove modules that no longer exist
+            for (Module module : moduleModel.getModules()) {
+                String moduleDir = PathUtil.getParentPath(module.getModuleFilePath());
+                if (moduleDir.equals(myProject.getBasePath())) {
+                    // Don't remove the root module.
+                    continue;
+                }
+                VirtualFile bndFile = LocalFileSystem.getInstance().findFileByPath(moduleDir + "/bnd.bnd");
+                if (bndFile == null || !bndFile.exists()) {
+                    getLibraryRegistry().moduleRemoved(module.getName());
+                    moduleModel.disposeModule(module);
                 }
+            }
 
-                // Create modules
-                for (Project project : myProjects) {
-                    try {
-                        rootModels.put(project, createModule(moduleModel, project, projectLevel));
-                        createExportedContentLibraries(project, libraryModel);
-                    } catch (Exception e) {
-                        LOG.error(e);  // should not happen, since project.prepare() is already called
+            // Create all modules up front, modules depending on them can be updated in any chunk
+            for (ResolvedProject project : myResolvedProjects) {
+                if (moduleModel.findModuleByName(project.name) == null) {
+                    String path = project.base + File.separator + project.name + ModuleFileType.DOT_DEFAULT_EXTENSION;
+                    moduleModel.newModule(path, StdModuleTypes.JAVA.getId());
+                    if (!toUpdate.contains(project)) {
+                        toUpdate.add(project);
                     }
                 }
-                // Set dependencies for modules
-                for (Project project : myProjects) {
-                    try {
-                        setDependencies(moduleModel, libraryModel, rootModels.get(project), project);
-                    } catch (Exception e) {
-                        LOG.error(e);  // should not happen, since project.prepare() is already called
+            }
+        } finally {
+            moduleModel.commit();
+        }
+
+        // Exported content libraries are created up front as well, modules depending on them can be in any chunk
+        LibraryTable.ModifiableModel libraryModel = ProjectLibraryTable.getInstance(myProject).getModifiableModel();
+        try {
+            for (ResolvedProject project : toUpdate) {
+                createExportedContentLibraries(project, libraryModel);
+            }
+        } finally {
+            libraryModel.commit();
+        }
+        return toUpdate;
+    }
+
+    /**
+     * Update the root models of the next chunk of modules, the next chunk is scheduled after committing the chunk.
+     */
+    private void updateRootModels(List<ResolvedProject> projects, int from, LanguageLevel projectLevel,
+                                  Map<String, String> fingerprints) {
+        if (myProject.isDisposed()) {
+            return;
+        }
+
+        int to = Math.min(from + MODULE_CHUNK_SIZE, projects.size());
+        List<ResolvedProject> chunk = projects.subList(from, to);
+        try (RefreshStatistics.Timer ignored = myOperation.time(RefreshStatistics.PHASE_CREATE_PROJECT_STRUCTURE)) {
+            ApplicationManager.getApplication().runWriteAction(() -> {
+                Map<String, ModifiableRootModel> rootModels = ContainerUtil.newHashMap();
+                ModifiableModuleModel moduleModel = ModuleManager.getInstance(myProject).getModifiableModel();
+                LibraryTable.ModifiableModel libraryModel =
+                        ProjectLibraryTable.getInstance(myProject).getModifiableModel();
+                try {
+                    // Create modules
+                    for (ResolvedProject project : chunk) {
+                        rootModels.put(project.name, createModule(moduleModel, project, projectLevel));
+                    }
+                    // Set dependencies for modules
+                    LibraryRegistry libraries = getLibraryRegistry();
+                    for (ResolvedProject project : chunk) {
+                        ModifiableRootModel rootModel = rootModels.get(project.name);
+                        setDependencies(moduleModel, libraryModel, rootModel, project);
+                        libraries.setModuleLibraries(project.name, rootModel.getOrderEntries());
+                    }
+
+                    if (to == projects.size()) {
+                        libraries.removeUnusedLibraries(libraryModel);
                     }
+                } finally {
+                    libraryModel.commit();
+                    ModifiableModelCommitter.multiCommit(rootModels.values(), moduleModel);
                 }
+            });
+        }
 
-                cleanupUnusedLibraries(moduleModel, rootModels, libraryModel);
-            } finally {
-                libraryModel.commit();
-                ModifiableModelCommitter.multiCommit(rootModels.values(), moduleModel);
+        Map<String, String> moduleFingerprints = getModuleFingerprints(myProject);
+        for (ResolvedProject project : chunk) {
+            if (myCheckpoints != null) {
+                myCheckpoints.remove(project.name);
             }
-        });
+            String fingerprint = fingerprints.get(project.name);
+            if (fingerprint != null) {
+                moduleFingerprints.put(project.name, fingerprint);
+            } else {
+                moduleFingerprints.remove(project.name);
+            }
+        }
+
+        if (to < projects.size()) {
+            runOnEdt(() -> updateRootModels(projects, to, projectLevel, fingerprints));
+        } else {
+            projectStructureCreated();
+        }
+    }
+
+    private void projectStructureCreated() {
+        RefreshStatistics.getInstance(myProject).finish(myOperation);
+
+        // The modules of all resolved projects are up to date, including the unchanged ones, their checkpoints are no
+        // longer needed to resume the import
+        ImportCheckpoints checkpoints = myCheckpoints;
+        if (checkpoints != null) {
+            for (ResolvedProject project : myResolvedProjects) {
+                checkpoints.remove(project.name);
+            }
+            ApplicationManager.getApplication().executeOnPooledThread(() -> checkpoints.save(myProject));
+        }
+
+        // Degraded projects are resolved again when the workspace is opened
+        boolean degraded = myResolvedProjects.stream().anyMatch(resolvedProject -> resolvedProject.degraded);
+        if (mySnapshotFingerprint != null && !degraded) {
+            List<ResolvedProject> resolvedProjects = ContainerUtil.newArrayList(myResolvedProjects);
+            String fingerprint = mySnapshotFingerprint;
+            boolean replace = myReplaceSnapshot;
+            ApplicationManager.getApplication().executeOnPooledThread(
+                    () -> WorkspaceSnapshot.save(myProject, fingerprint, resolvedProjects, replace));
+        }
+    }
+
+    /**
+     * Run on the EDT after the events that are already queued, runs right away in unit test mode.
+     */
+    private void runOnEdt(Runnable runnable) {
+        if (isUnitTestMode()) {
+            runnable.run();
+        } else {
+            ApplicationManager.getApplication().invokeLater(runnable, myProject.getDisposed());
+        }
+    }
+
+    /**
+     * Fingerprints of the resolved projects the modules were last updated from, by module name. Kept in memory only,
+     * the first import after opening the project updates all modules.
+     */
+    @NotNull
+    private static Map<String, String> getModuleFingerprints(@NotNull com.intellij.openapi.project.Project project) {
+        Map<String, String> fingerprints = project.getUserData(MODULE_FINGERPRINTS);
+        if (fingerprints == null) {
+            fingerprints = ((UserDataHolderEx) project).putUserDataIfAbsent(MODULE_FINGERPRINTS,
+                    ContainerUtil.newConcurrentMap());
+        }
+        return fingerprints;
     }
 
-    private ModifiableRootModel createModule(ModifiableModuleModel moduleModel, Project project,
-                                             LanguageLevel projectLevel) throws Exception {
-        String name = project.getName();
+    /**
+     * Fingerprint of everything a module is created from, the source path, output dirs, the containers on the
+     * bootclasspath, buildpath and testpath and the exported contents of the resolved project and the exported contents
+     * of the projects it depends on.
+     */
+    @Nullable
+    private static String fingerprint(ResolvedProject project, Map<String, ResolvedProject> projectsByName,
+                                      LanguageLevel projectLevel) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(new JSONCodec().enc().put(project).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(projectLevel.name().getBytes(StandardCharsets.UTF_8));
+            // The module depends on the exported content libraries of its project dependencies
+            for (List<ResolvedProject.ResolvedContainer> containers :
+                    Arrays.asList(project.bootclasspath, project.buildpath, project.testpath)) {
+                for (ResolvedProject.ResolvedContainer container : containers) {
+                    ResolvedProject dependency = container.type == Container.TYPE.PROJECT
+                            ? projectsByName.get(container.project) : null;
+                    if (dependency != null) {
+                        digest.update(new JSONCodec().enc().put(dependency.exportedContents).toString()
+                                .getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            return Hex.toHexString(digest.digest());
+        } catch (Exception e) {
+            LOG.warn("Failed to calculate fingerprint for project " + project.name, e);
+            return null;
+        }
+    }
+
+    private ModifiableRootModel createModule(ModifiableModuleModel moduleModel, ResolvedProject project,
+                                             LanguageLevel projectLevel) {
+        String name = project.name;
         Module module = moduleModel.findModuleByName(name);
         if (module == null) {
-            String path = project.getBase().getPath() + File.separator + name + ModuleFileType.DOT_DEFAULT_EXTENSION;
+            String path = project.base + File.separator + name + ModuleFileType.DOT_DEFAULT_EXTENSION;
             module = moduleModel.newModule(path, StdModuleTypes.JAVA.getId());
         }
 
@@ -319,17 +874,16 @@ public class BndProjectImporter {
         }
         rootModel.inheritSdk();
 
-        ContentEntry contentEntry = rootModel.addContentEntry(url(project.getBase()));
-        for (File src : project.getSourcePath()) {
+        ContentEntry contentEntry = rootModel.addContentEntry(url(project.base));
+        for (String src : project.sourcePath) {
             contentEntry.addSourceFolder(url(src), false);
         }
-        File testSrc = project.getTestSrc();
-        if (testSrc != null) {
-            contentEntry.addSourceFolder(url(testSrc), true);
+        if (project.testSrc != null) {
+            contentEntry.addSourceFolder(url(project.testSrc), true);
         }
-        contentEntry.addExcludeFolder(url(project.getTarget()));
+        contentEntry.addExcludeFolder(url(project.target));
 
-        LanguageLevel sourceLevel = LanguageLevel.parse(project.getProperty(Constants.JAVAC_SOURCE));
+        LanguageLevel sourceLevel = LanguageLevel.parse(project.javacSource);
         if (sourceLevel == projectLevel)
             sourceLevel = null;
         rootModel.getModuleExtension(LanguageLevelModuleExtension.class).setLanguageLevel(sourceLevel);
@@ -337,47 +891,38 @@ public class BndProjectImporter {
         CompilerModuleExtension compilerExt = rootModel.getModuleExtension(CompilerModuleExtension.class);
         compilerExt.inheritCompilerOutputPath(false);
         compilerExt.setExcludeOutput(true);
-        compilerExt.setCompilerOutputPath(url(project.getSrcOutput()));
-        compilerExt.setCompilerOutputPathForTests(url(project.getTestOutput()));
+        compilerExt.setCompilerOutputPath(url(project.srcOutput));
+        compilerExt.setCompilerOutputPathForTests(url(project.testOutput));
 
-        String targetLevel = project.getProperty(Constants.JAVAC_TARGET);
-        CompilerConfiguration.getInstance(myProject).setBytecodeTargetLevel(module, targetLevel);
+        CompilerConfiguration.getInstance(myProject).setBytecodeTargetLevel(module, project.javacTarget);
 
         return rootModel;
     }
 
-    private void createExportedContentLibraries(Project project, LibraryTable.ModifiableModel libraryModel) {
-        try {
-            ProjectBuilder builder = project.getBuilder(null);
-            for (Builder subBuilder : builder.getSubBuilders()) {
-
-                String libName = BND_EXPORTED_CONTENTS_PREFIX + builder.getBsn();
+    private void createExportedContentLibraries(ResolvedProject project, LibraryTable.ModifiableModel libraryModel) {
+        for (ResolvedProject.ExportedContent exportedContent : project.exportedContents) {
+            String libName = exportedContent.libraryName;
 
-                if (isExportingBuildpathContent(project, subBuilder)) {
-                    File outputFile = generateExportedContentJar(project, subBuilder);
-
-                    Library library = libraryModel.getLibraryByName(libName);
-                    if (library == null) {
-                        library = libraryModel.createLibrary(libName);
-                    }
-                    Library.ModifiableModel model = library.getModifiableModel();
-                    String[] urls = model.getUrls(OrderRootType.CLASSES);
-                    for (String url : urls) {
-                        model.removeRoot(url, OrderRootType.CLASSES);
-                    }
+            if (exportedContent.jar != null) {
+                Library library = libraryModel.getLibraryByName(libName);
+                if (library == null) {
+                    library = libraryModel.createLibrary(libName);
+                }
+                Library.ModifiableModel model = library.getModifiableModel();
+                String[] urls = model.getUrls(OrderRootType.CLASSES);
+                for (String url : urls) {
+                    model.removeRoot(url, OrderRootType.CLASSES);
+                }
 
-                    model.addRoot(url(outputFile), OrderRootType.CLASSES);
+                model.addRoot(url(exportedContent.jar), OrderRootType.CLASSES);
 
-                    model.commit();
-                } else {
-                    Library library = libraryModel.getLibraryByName(libName);
-                    if (library != null) {
-                        libraryModel.removeLibrary(library);
-                    }
+                model.commit();
+            } else {
+                Library library = libraryModel.getLibraryByName(libName);
+                if (library != null) {
+                    libraryModel.removeLibrary(library);
                 }
             }
-        } catch (Exception e) {
-            LOG.error("Failed to create exported content libraries", e);
         }
     }
 
@@ -387,19 +932,14 @@ public class BndProjectImporter {
             return false;
         }
 
+        JarPackageIndex jarPackageIndex = JarPackageIndex.getInstance(myProject);
+        InstructionMatcher instructions = InstructionMatcher.of(exportPackage);
         Collection<Container> buildpath = project.getBuildpath();
         for (Container container : buildpath) {
             if (container.getType() == Container.TYPE.REPO || container.getType() == Container.TYPE.EXTERNAL) {
-                try (Jar jar = new Jar(container.getFile())) {
-                    Instructions instructions = new Instructions(exportPackage);
-
-                    for (String packageName : jar.getPackages()) {
-                        if (packageName.trim().isEmpty()) {
-                            continue;
-                        }
-                        if (instructions.matches(packageName)) {
-                            return true;
-                        }
+                for (String packageName : jarPackageIndex.getPackages(container.getFile())) {
+                    if (instructions.matches(packageName)) {
+                        return true;
                     }
                 }
             }
@@ -407,83 +947,104 @@ public class BndProjectImporter {
         return false;
     }
 
+    /**
+     * Hash of the inputs of the exported content jar for a sub-bundle, the package instructions of the sub-bundle and
+     * the path, size and modification time of the jars on the buildpath.
+     */
+    @NotNull
+    private static String exportedContentHash(Project project, Builder subBuilder) throws Exception {
+        StringBuilder inputs = new StringBuilder(subBuilder.getBsn()).append('\n');
+        for (String instruction : EXPORTED_CONTENT_INSTRUCTIONS) {
+            inputs.append(instruction).append('=').append(subBuilder.getProperty(instruction, "")).append('\n');
+        }
+        for (Container container : project.getBuildpath()) {
+            File file = container.getFile();
+            inputs.append(file.getAbsolutePath()).append('|').append(file.lastModified()).append('|')
+                    .append(file.length()).append('\n');
+        }
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        return Hex.toHexString(digest.digest(inputs.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Generate the exported content jar for a sub-bundle, the jar is only generated again when the hash of its inputs
+     * has changed. The hash of the jar is stored next to it.
+     */
     @NotNull
-    private File generateExportedContentJar(Project project, Builder subBuilder) throws Exception {
+    private static File generateExportedContentJar(Project project, Builder subBuilder, String hash)
+            throws Exception {
         File properties = project.getPropertiesFile();
         File base = properties.getParentFile();
         File target = new File(base, IDEA_TMP_GENERATED);
         File outputFile = new File(target, subBuilder.getBsn() + ".jar");
+        File hashFile = new File(target, subBuilder.getBsn() + HASH_EXT);
 
-        Project tmpProject = new Project(project.getWorkspace(), base);
+        if (outputFile.isFile() && hashFile.isFile()
+                && hash.equals(FileUtil.loadFile(hashFile, StandardCharsets.UTF_8).trim())) {
+            return outputFile;
+        }
 
-        tmpProject.setBase(base);
-        tmpProject.set(Constants.DEFAULT_PROP_BIN_DIR, "bin_dummy");
-        tmpProject.set(Constants.DEFAULT_PROP_TARGET_DIR, IDEA_TMP_GENERATED);
-        tmpProject.prepare();
+        try (Project tmpProject = new Project(project.getWorkspace(), base)) {
+            tmpProject.setBase(base);
+            tmpProject.set(Constants.DEFAULT_PROP_BIN_DIR, "bin_dummy");
+            tmpProject.set(Constants.DEFAULT_PROP_TARGET_DIR, IDEA_TMP_GENERATED);
+            tmpProject.prepare();
 
-        Builder projectBuilder = new ProjectBuilder(tmpProject) {
-            @Override
-            public Manifest calcManifest() {
-                return new Manifest();
+            Builder projectBuilder = new ProjectBuilder(tmpProject) {
+                @Override
+                public Manifest calcManifest() {
+                    return new Manifest();
+                }
+            };
+            if (subBuilder.getPropertiesFile() != null) {
+                projectBuilder = projectBuilder.getSubBuilder(subBuilder.getPropertiesFile());
             }
-        };
-        if (subBuilder.getPropertiesFile() != null) {
-            projectBuilder = projectBuilder.getSubBuilder(subBuilder.getPropertiesFile());
-        }
-        projectBuilder.setBase(base);
+            projectBuilder.setBase(base);
 
-        if (!outputFile.exists()) {
+            FileUtil.delete(hashFile);
             if (outputFile.exists() && !outputFile.delete()) {
                 LOG.warn("Failed to delete exported content jar: " + outputFile.getName());
             }
 
-            Jar build = projectBuilder.build();
-            build.write(outputFile);
+            try (Jar build = projectBuilder.build()) {
+                build.write(outputFile);
+            }
+            FileUtil.writeToFile(hashFile, hash);
         }
         return outputFile;
     }
 
-    private void cleanupUnusedLibraries(ModifiableModuleModel moduleModel, Map<Project, ModifiableRootModel> rootModels, LibraryTable.ModifiableModel libraryModel) {
-        // Use the updated ones as changes are not yet committed so newly added libraries won't be visible if a new model is created
-        Map<Module, ModifiableRootModel> updatedModuleModels = rootModels.values().stream()
-                .collect(Collectors.toMap(ModuleRootModel::getModule, modifiableRootModel -> modifiableRootModel));
-
-        List<ModifiableRootModel> toDispose = new ArrayList<>();
-
-        Set<String> usedLibraryNames = Arrays.stream(moduleModel.getModules())
-                .map(module -> updatedModuleModels
-                        .computeIfAbsent(module, m -> {
-                            ModifiableRootModel modifiableModel = ModuleRootManager.getInstance(module).getModifiableModel();
-                            toDispose.add(modifiableModel);
-                            return modifiableModel;
-                        }))
-                .flatMap(modifiableModuleModel -> Arrays.stream(modifiableModuleModel.getOrderEntries())
-                        .filter(LibraryOrderEntry.class::isInstance)
-                        .map(LibraryOrderEntry.class::cast)
-                        .map(LibraryOrderEntry::getLibrary)
-                        .filter(Objects::nonNull)
-                        .map(Library::getName))
-                .collect(Collectors.toSet());
-
-        toDispose.forEach(ModifiableRootModel::dispose);
+    /**
+     * Remove generated jars of sub-bundles that no longer exist or no longer export content.
+     */
+    private static void removeUnusedExportedContentJars(Project project, Set<File> usedJars) {
+        File target = new File(project.getBase(), IDEA_TMP_GENERATED);
+        File[] jars = target.listFiles((dir, name) -> name.endsWith(".jar"));
+        if (jars == null) {
+            return;
+        }
+        for (File jar : jars) {
+            if (!usedJars.contains(jar)) {
+                LOG.info("Removing unused exported content jar " + jar);
+                FileUtil.delete(jar);
+                FileUtil.delete(new File(target, FileUtil.getNameWithoutExtension(jar) + HASH_EXT));
+            }
+        }
+    }
 
-        Arrays.stream(libraryModel.getLibraries())
-                .filter(library -> !usedLibraryNames.contains(library.getName()))
-                .filter(library -> library.getName() != null && library.getName().startsWith(BND_LIB_PREFIX))
-                .forEach(libraryModel::removeLibrary);
+    private LibraryRegistry getLibraryRegistry() {
+        return LibraryRegistry.getInstance(myProject, BND_LIB_PREFIX);
     }
 
     private void setDependencies(ModifiableModuleModel moduleModel,
                                  LibraryTable.ModifiableModel libraryModel,
                                  ModifiableRootModel rootModel,
-                                 Project project) throws Exception {
+                                 ResolvedProject project) {
         List<String> warnings = ContainerUtil.newArrayList();
 
-        Collection<Container> boot = project.getBootclasspath();
-        Set<Container> bootSet = Collections.emptySet();
-        if (!boot.isEmpty()) {
-            setDependencies(moduleModel, libraryModel, rootModel, project, boot, false, bootSet, warnings);
-            bootSet = ContainerUtil.newHashSet(boot);
+        if (!project.bootclasspath.isEmpty()) {
+            setDependencies(moduleModel, libraryModel, rootModel, project.bootclasspath, false, warnings);
 
             OrderEntry[] entries = rootModel.getOrderEntries();
             if (entries.length > 2) {
@@ -492,31 +1053,20 @@ public class BndProjectImporter {
             }
         }
 
-        Collection<Container> buildpath = project.getBuildpath();
-        Collection<Container> testpath = project.getTestpath();
-
-        setDependencies(moduleModel, libraryModel, rootModel, project, testpath, true, bootSet, warnings);
-        setDependencies(moduleModel, libraryModel, rootModel, project, buildpath, false, bootSet, warnings);
+        setDependencies(moduleModel, libraryModel, rootModel, project.testpath, true, warnings);
+        setDependencies(moduleModel, libraryModel, rootModel, project.buildpath, false, warnings);
 
-        checkWarnings(project, warnings);
+        checkWarnings(project.name, warnings);
     }
 
     private void setDependencies(ModifiableModuleModel moduleModel,
                                  LibraryTable.ModifiableModel libraryModel,
                                  ModifiableRootModel rootModel,
-                                 Project project,
-                                 Collection<Container> classpath,
+                                 List<ResolvedProject.ResolvedContainer> classpath,
                                  boolean tests,
-                                 Set<Container> excluded,
                                  List<String> warnings) {
         DependencyScope scope = tests ? DependencyScope.TEST : DependencyScope.COMPILE;
-        for (Container dependency : classpath) {
-            if (excluded.contains(dependency)) {
-                continue;  // skip boot path dependency
-            }
-            if (dependency.getType() == Container.TYPE.PROJECT && project == dependency.getProject()) {
-                continue;  // skip self-reference
-            }
+        for (ResolvedProject.ResolvedContainer dependency : classpath) {
             try {
                 addEntry(moduleModel, libraryModel, rootModel, dependency, scope);
             } catch (IllegalArgumentException e) {
@@ -528,13 +1078,13 @@ public class BndProjectImporter {
     private void addEntry(ModifiableModuleModel moduleModel,
                           LibraryTable.ModifiableModel libraryModel,
                           ModifiableRootModel rootModel,
-                          Container dependency,
+                          ResolvedProject.ResolvedContainer dependency,
                           DependencyScope scope) throws IllegalArgumentException {
-        File file = dependency.getFile();
-        String bsn = dependency.getBundleSymbolicName();
-        String version = dependency.getVersion();
+        File file = new File(dependency.file);
+        String bsn = dependency.bsn;
+        String version = dependency.version;
 
-        String path = file.getPath();
+        String path = dependency.file;
         if (path.contains(": ")) {
             throw new IllegalArgumentException("Cannot resolve " + bsn + ":" + version + ": " + path);
         }
@@ -566,9 +1116,13 @@ public class BndProjectImporter {
 
         ExportableOrderEntry entry;
 
-        switch (dependency.getType()) {
+        if (dependency.type == null) {
+            throw new IllegalArgumentException("Unknown dependency '" + bsn + "'");
+        }
+
+        switch (dependency.type) {
             case PROJECT: {
-                String name = dependency.getProject().getName();
+                String name = dependency.project;
                 Module module = moduleModel.findModuleByName(name);
                 if (module == null) {
                     throw new IllegalArgumentException("Unknown module '" + name + "'");
@@ -579,15 +1133,10 @@ public class BndProjectImporter {
 
                 if (entry == null) {
                     entry = rootModel.addModuleOrderEntry(module);
-
-                    // Check if the module to which the module dependency is added is exporting contents from the
-                    // dependency, in that case mark the dependency as exported.
-                    boolean exportingDependencyModulePackage =
-                            isExportingDependencyModulePackage(rootModel, dependency);
-                    entry.setExported(exportingDependencyModulePackage);
+                    entry.setExported(dependency.exported);
                 }
 
-                String fixedBsn = dependency.getBundleSymbolicName().replaceAll("\\.jar$", "");
+                String fixedBsn = bsn.replaceAll("\\.jar$", "");
                 Library library = libraryModel.getLibraryByName(BND_EXPORTED_CONTENTS_PREFIX + fixedBsn);
                 if (library != null) {
                     entry = rootModel.addLibraryEntry(library);
@@ -598,23 +1147,9 @@ public class BndProjectImporter {
 
             case REPO: {
                 String name = BND_LIB_PREFIX + bsn + ":" + version;
-                Library library = libraryModel.getLibraryByName(name);
-                if (library == null) {
-                    library = libraryModel.createLibrary(name);
-                }
-
-                Library.ModifiableModel model = library.getModifiableModel();
-                for (String url : model.getUrls(OrderRootType.CLASSES))
-                    model.removeRoot(url, OrderRootType.CLASSES);
-                for (String url : model.getUrls(OrderRootType.SOURCES))
-                    model.removeRoot(url, OrderRootType.SOURCES);
-                model.addRoot(url(file), OrderRootType.CLASSES);
-                String srcRoot = mySourcesMap.get(path);
-                if (srcRoot != null) {
-                    model.addRoot(url(file) + srcRoot, OrderRootType.SOURCES);
-                }
-                model.commit();
-
+                String srcRoot = dependency.sourceRoot;
+                Library library = getLibraryRegistry().getLibrary(libraryModel, name, url(file),
+                        srcRoot != null ? url(file) + srcRoot : null);
                 entry = rootModel.addLibraryEntry(library);
                 break;
             }
@@ -623,7 +1158,7 @@ public class BndProjectImporter {
                 Library library = rootModel.getModuleLibraryTable().createLibrary(file.getName());
                 Library.ModifiableModel model = library.getModifiableModel();
                 model.addRoot(url(file), OrderRootType.CLASSES);
-                String srcRoot = mySourcesMap.get(path);
+                String srcRoot = dependency.sourceRoot;
                 if (srcRoot != null) {
                     model.addRoot(url(file) + srcRoot, OrderRootType.SOURCES);
                 }
@@ -635,32 +1170,37 @@ public class BndProjectImporter {
 
             default:
                 throw new IllegalArgumentException(
-                        "Unknown dependency '" + dependency + "' of type " + dependency.getType());
+                        "Unknown dependency '" + bsn + "' of type " + dependency.type);
         }
 
         entry.setScope(scope);
     }
 
-    private boolean isExportingDependencyModulePackage(ModifiableRootModel rootModel, Container dependency) {
-        try {
-            Project dependencyProject = dependency.getProject();
-            Workspace workspace = dependencyProject.getWorkspace();
-
-            HashSet<String> dependencyModulePackages = new HashSet<>();
-            for (File sourceRoot : dependencyProject.getSourcePath()) {
-                collectPackages(sourceRoot, "", dependencyModulePackages);
+    /**
+     * The matchers for the non empty {@code Export-Package} instructions of the sub-bundles of a project, cached for
+     * the duration of the import as the same project is checked for each of its dependencies.
+     */
+    private List<InstructionMatcher> getExportPackageMatchers(Project project) throws Exception {
+        List<InstructionMatcher> matchers = myExportPackageMatchers.get(project.getName());
+        if (matchers == null) {
+            matchers = new ArrayList<>();
+            for (Builder subBuilder : project.getBuilder(null).getSubBuilders()) {
+                InstructionMatcher matcher = InstructionMatcher.of(subBuilder.getExportPackage());
+                if (!matcher.isEmpty()) {
+                    matchers.add(matcher);
+                }
             }
+            myExportPackageMatchers.put(project.getName(), matchers);
+        }
+        return matchers;
+    }
 
-            String dependerModuleName = rootModel.getModule().getName();
-            Project dependerBndProject = workspace.getProject(dependerModuleName);
-            List<Builder> subBuilders = dependerBndProject.getBuilder(null).getSubBuilders();
-            for (Builder subBuilder : subBuilders) {
-                Instructions instructions = new Instructions(subBuilder.getExportPackage());
-
-                if (instructions.isEmpty()) {
-                    continue;
-                }
+    private boolean isExportingDependencyModulePackage(Project dependerProject, Project dependencyProject) {
+        try {
+            Set<String> dependencyModulePackages =
+                    SourcePackageIndex.getInstance(myProject).getPackages(dependencyProject);
 
+            for (InstructionMatcher instructions : getExportPackageMatchers(dependerProject)) {
                 for (String dependencyModulePackage : dependencyModulePackages) {
                     if (instructions.matches(dependencyModulePackage)) {
                         return true;
@@ -673,33 +1213,13 @@ public class BndProjectImporter {
         return false;
     }
 
-    private void collectPackages(File sourceRoot, String baseName, Set<String> packages) {
-        File[] children = sourceRoot.listFiles();
-        if (children == null) {
-            return;
-        }
-        for (File child : children) {
-            if (child.isDirectory()) {
-                String base = baseName + (baseName.length() > 0 ? "." : "") + child.getName();
-                collectPackages(child, base, packages);
-            } else if ("java".equals(getExtension(child))) {
-                packages.add(baseName);
-            }
-        }
-    }
-
-    @NotNull
-    private String getExtension(File child) {
-        return child.getName().substring(child.getName().lastIndexOf('.') + 1);
-    }
-
-    private void checkWarnings(Project project, List<String> warnings) {
+    private void checkWarnings(String projectName, List<String> warnings) {
         if (warnings != null && !warnings.isEmpty()) {
             if (!isUnitTestMode()) {
                 LOG.warn(warnings.toString());
 
                 NotificationType type = NotificationType.WARNING;
-                String text = message("bnd.import.warn.text", project.getName(),
+                String text = message("bnd.import.warn.text", projectName,
                         "<br>" + StringUtil.join(warnings, "<br>"));
 
                 myProject.getComponent(AmdatuIdeaPlugin.class).getNotificationService()
@@ -719,11 +1239,72 @@ public class BndProjectImporter {
         return VfsUtil.getUrlForLibraryRoot(file);
     }
 
+    private static String url(String path) {
+        return url(new File(path));
+    }
+
     @NotNull
     private static Collection<Project> getWorkspaceProjects(@NotNull Workspace workspace) throws Exception {
         return ContainerUtil.filter(workspace.getAllProjects(), Condition.NOT_NULL);
     }
 
+    @Nullable
+    private static String fingerprint(@NotNull com.intellij.openapi.project.Project project,
+                                      @NotNull Workspace workspace) {
+        try {
+            AmdatuIdeaPlugin amdatuIdeaPlugin = project.getComponent(AmdatuIdeaPlugin.class);
+            return amdatuIdeaPlugin.runRead(() -> WorkspaceSnapshot.fingerprint(workspace));
+        } catch (Exception e) {
+            LOG.warn("Failed to calculate fingerprint for workspace " + workspace.getBase(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Import the workspace when the project is opened. If none of the bnd files have changed since the previous
+     * import the modules are created from the workspace snapshot, after that the workspace is re-imported in the
+     * background to pick up changes that are not covered by the snapshot fingerprint (e.g. new versions of a bundle in
+     * a repository).
+     */
+    public static void importWorkspace(@NotNull com.intellij.openapi.project.Project project) {
+        if (isUnitTestMode()) {
+            doReimportWorkspace(project);
+            return;
+        }
+
+        new Task.Backgroundable(project, message("bnd.import.snapshot.task"), true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                Workspace workspace = project.getComponent(AmdatuIdeaPlugin.class).getWorkspace();
+                assert workspace != null : project;
+
+                String fingerprint = fingerprint(project, workspace);
+                WorkspaceSnapshot snapshot = fingerprint != null ? WorkspaceSnapshot.load(project) : null;
+                if (snapshot == null || !snapshot.isValid(fingerprint)) {
+                    doReimportWorkspace(project);
+                    return;
+                }
+
+                LOG.info("Importing workspace from snapshot, ws=" + workspace.getBase());
+                BndProjectImporter importer = new BndProjectImporter(project, Collections.emptyList());
+                importer.myResolvedProjects.addAll(snapshot.projects);
+                ApplicationManager.getApplication().invokeLater(() -> {
+                    importer.setupProject();
+                    importer.createProjectStructure();
+                    reimportWorkspace(project);
+                }, project.getDisposed());
+            }
+        }.queue();
+    }
+
+    /**
+     * Discard the checkpoints of a previous import, the next import resolves all projects (e.g. after a forced refresh
+     * that could have changed the repository contents).
+     */
+    public static void discardCheckpoints(@NotNull com.intellij.openapi.project.Project project) {
+        ImportCheckpoints.delete(project);
+    }
+
     public static void reimportWorkspace(@NotNull com.intellij.openapi.project.Project project) {
         if (!isUnitTestMode()) {
             new Task.Backgroundable(project, message("bnd.reimport.task"), true) {
@@ -743,14 +1324,17 @@ public class BndProjectImporter {
 
         Collection<Project> projects;
         try {
-            projects = getWorkspaceProjects(workspace);
+            projects = project.getComponent(AmdatuIdeaPlugin.class).runRead(() -> getWorkspaceProjects(workspace));
         } catch (Exception e) {
             LOG.error("ws=" + workspace.getBase(), e);
             return;
         }
 
+        String fingerprint = fingerprint(project, workspace);
         Runnable task = () -> {
             BndProjectImporter importer = new BndProjectImporter(project, projects);
+            importer.mySnapshotFingerprint = fingerprint;
+            importer.myReplaceSnapshot = true;
             importer.setupProject();
             importer.resolve(true);
         };
@@ -781,23 +1365,30 @@ public class BndProjectImporter {
         Workspace workspace = project.getComponent(AmdatuIdeaPlugin.class).getWorkspace();
         assert workspace != null : project;
 
-        Collection<Project> projects;
+        Collection<Project> projects = ContainerUtil.newArrayListWithCapacity(projectDirs.size());
         try {
-            projects = ContainerUtil.newArrayListWithCapacity(projectDirs.size());
-            for (String dir : projectDirs) {
-                if (indicator != null)
-                    indicator.checkCanceled();
-                Project p = workspace.getProject(PathUtil.getFileName(dir));
-                if (p != null) {
-                    projects.add(p);
+            project.getComponent(AmdatuIdeaPlugin.class).runRead(() -> {
+                for (String dir : projectDirs) {
+                    if (indicator != null)
+                        indicator.checkCanceled();
+                    Project p = workspace.getProject(PathUtil.getFileName(dir));
+                    if (p != null) {
+                        projects.add(p);
+                    }
                 }
-            }
+                return null;
+            });
         } catch (Exception e) {
             LOG.error("ws=" + workspace.getBase() + " pr=" + projectDirs, e);
             return;
         }
 
-        Runnable task = () -> new BndProjectImporter(project, projects).resolve(true);
+        String fingerprint = fingerprint(project, workspace);
+        Runnable task = () -> {
+            BndProjectImporter importer = new BndProjectImporter(project, projects);
+            importer.mySnapshotFingerprint = fingerprint;
+            importer.resolve(true);
+        };
         if (!isUnitTestMode()) {
             ApplicationManager.getApplication().invokeLater(task, project.getDisposed());
         } else {
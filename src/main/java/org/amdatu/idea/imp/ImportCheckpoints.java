@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.imp;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+
+import aQute.bnd.build.Workspace;
+import aQute.bnd.util.dto.DTO;
+import aQute.lib.hex.Hex;
+import aQute.lib.json.JSONCodec;
+
+/**
+ * Resolved projects of an import that didn't complete cleanly, because it was cancelled or because some projects
+ * failed to prepare.
+ *
+ * <p>A checkpoint is stored for each project that resolved without errors and used by the next import instead of
+ * preparing the project again, as long as neither the workspace configuration nor the bnd files of the project and the
+ * projects it depends on have changed. Projects that failed are resolved again. The checkpoint of a project is removed
+ * once its module has been committed, also when other projects failed, so checkpoints are only used to resume an
+ * import that didn't get that far.
+ */
+class ImportCheckpoints extends DTO {
+
+    private static final Logger LOG = Logger.getInstance(ImportCheckpoints.class);
+
+    /**
+     * Increase when the checkpoint format changes to ignore checkpoints stored by a previous version of the plugin
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    public static class Checkpoint extends DTO {
+        public String fingerprint;
+        public ResolvedProject project;
+    }
+
+    public int version;
+    public Map<String, Checkpoint> projects = new LinkedHashMap<>();
+
+    /**
+     * Fingerprints of the bnd files a project resolves from, the workspace configuration, the bnd files of the project
+     * itself and the bnd files of all projects it depends on.
+     */
+    @NotNull
+    static Map<aQute.bnd.build.Project, String> fingerprints(@NotNull Workspace workspace,
+                                                             @NotNull ProjectDependencyGraph graph) throws Exception {
+        List<File> workspaceFiles = new ArrayList<>();
+        WorkspaceSnapshot.collectWorkspaceFiles(workspace, workspaceFiles);
+        String workspaceDigest = WorkspaceSnapshot.digest(workspaceFiles);
+
+        Map<aQute.bnd.build.Project, String> projectDigests = new HashMap<>();
+        for (aQute.bnd.build.Project project : graph.getProjects()) {
+            List<File> files = new ArrayList<>();
+            WorkspaceSnapshot.collectProjectFiles(project.getBase(), files);
+            projectDigests.put(project, WorkspaceSnapshot.digest(files));
+        }
+
+        Map<aQute.bnd.build.Project, String> fingerprints = new HashMap<>();
+        for (aQute.bnd.build.Project project : graph.getProjects()) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(workspaceDigest.getBytes(StandardCharsets.UTF_8));
+            for (aQute.bnd.build.Project dependency : transitiveDependencies(graph, project)) {
+                String entry = '|' + dependency.getName() + ':' + projectDigests.get(dependency);
+                digest.update(entry.getBytes(StandardCharsets.UTF_8));
+            }
+            fingerprints.put(project, Hex.toHexString(digest.digest()));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * The project and all projects it depends on (transitively), the order is stable for an unchanged graph.
+     */
+    private static Collection<aQute.bnd.build.Project> transitiveDependencies(ProjectDependencyGraph graph,
+                                                                              aQute.bnd.build.Project project) {
+        Set<aQute.bnd.build.Project> dependencies = new HashSet<>();
+        List<aQute.bnd.build.Project> ordered = new ArrayList<>();
+        Deque<aQute.bnd.build.Project> queue = new ArrayDeque<>();
+        queue.add(project);
+        while (!queue.isEmpty()) {
+            aQute.bnd.build.Project next = queue.poll();
+            if (dependencies.add(next)) {
+                ordered.add(next);
+                queue.addAll(graph.getDependencies(next));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Get the checkpoint of a project.
+     *
+     * @return the resolved project, {@code null} when there is no checkpoint for the current fingerprint or when the
+     * files it refers to no longer exist
+     */
+    @Nullable
+    synchronized ResolvedProject get(@NotNull String name, @NotNull String fingerprint) {
+        Checkpoint checkpoint = projects.get(name);
+        if (checkpoint == null || !fingerprint.equals(checkpoint.fingerprint)
+                || !WorkspaceSnapshot.filesExist(checkpoint.project)) {
+            return null;
+        }
+        return checkpoint.project;
+    }
+
+    synchronized void put(@NotNull String name, @NotNull String fingerprint, @NotNull ResolvedProject project) {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.fingerprint = fingerprint;
+        checkpoint.project = project;
+        projects.put(name, checkpoint);
+    }
+
+    synchronized void remove(@NotNull String name) {
+        projects.remove(name);
+    }
+
+    @NotNull
+    static ImportCheckpoints load(@NotNull Project project) {
+        File file = getCheckpointsFile(project);
+        if (file.isFile()) {
+            try {
+                ImportCheckpoints checkpoints = new JSONCodec().dec().from(file).get(ImportCheckpoints.class);
+                if (checkpoints.version == FORMAT_VERSION) {
+                    return checkpoints;
+                }
+            } catch (Exception e) {
+                LOG.warn("Failed to read import checkpoints " + file, e);
+            }
+        }
+
+        ImportCheckpoints checkpoints = new ImportCheckpoints();
+        checkpoints.version = FORMAT_VERSION;
+        return checkpoints;
+    }
+
+    /**
+     * Store the checkpoints, the stored checkpoints are removed when there are none left.
+     */
+    synchronized void save(@NotNull Project project) {
+        File file = getCheckpointsFile(project);
+        if (projects.isEmpty()) {
+            FileUtil.delete(file);
+            return;
+        }
+
+        try {
+            FileUtil.createParentDirs(file);
+            new JSONCodec().enc().to(file).put(this);
+        } catch (Exception e) {
+            LOG.warn("Failed to write import checkpoints " + file, e);
+            FileUtil.delete(file);
+        }
+    }
+
+    static void delete(@NotNull Project project) {
+        FileUtil.delete(getCheckpointsFile(project));
+    }
+
+    @NotNull
+    private static File getCheckpointsFile(@NotNull Project project) {
+        return new File(PathManager.getSystemPath(),
+                "amdatu-idea/checkpoints/" + project.getLocationHash() + ".json");
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.imp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipFile;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+
+import aQute.bnd.util.dto.DTO;
+import aQute.lib.json.JSONCodec;
+
+/**
+ * Application level cache of the embedded source roots of jars, shared by all imports in all projects.
+ *
+ * <p>Entries are keyed by the jar path and only valid as long as the size and modification time of the jar haven't
+ * changed, jars are only opened when there is no valid entry. The cache is stored in the IDE system directory.
+ */
+public class JarSourcesCache {
+
+    private static final Logger LOG = Logger.getInstance(JarSourcesCache.class);
+
+    /**
+     * Increase when the cache format changes to ignore caches stored by a previous version of the plugin
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    public static class Entry extends DTO {
+        public long length;
+        public long lastModified;
+
+        /**
+         * Source root within the jar, {@code null} when the jar has no embedded sources
+         */
+        public String sourceRoot;
+    }
+
+    public static class State extends DTO {
+        public int version;
+        public Map<String, Entry> entries = new LinkedHashMap<>();
+    }
+
+    private final Map<String, Entry> myEntries = new ConcurrentHashMap<>();
+    private volatile boolean myLoaded;
+    private volatile boolean myDirty;
+
+    public static JarSourcesCache getInstance() {
+        return ServiceManager.getService(JarSourcesCache.class);
+    }
+
+    /**
+     * Get the embedded source root of a jar.
+     *
+     * @param sourceRoot the location of embedded sources in a jar
+     * @return the source root, {@code null} if the jar doesn't contain sources or can't be read
+     */
+    @Nullable
+    String getSourceRoot(@NotNull File jar, @NotNull String sourceRoot) {
+        load();
+
+        String path = jar.getPath();
+        long length = jar.length();
+        long lastModified = jar.lastModified();
+        Entry entry = myEntries.get(path);
+        if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+            return entry.sourceRoot;
+        }
+
+        entry = new Entry();
+        entry.length = length;
+        entry.lastModified = lastModified;
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            entry.sourceRoot = zipFile.getEntry(sourceRoot) != null ? sourceRoot : null;
+        } catch (IOException e) {
+            LOG.debug("Failed to read jar " + jar, e);
+        }
+        myEntries.put(path, entry);
+        myDirty = true;
+        return entry.sourceRoot;
+    }
+
+    private void load() {
+        if (myLoaded) {
+            return;
+        }
+        synchronized (this) {
+            if (myLoaded) {
+                return;
+            }
+            File file = getCacheFile();
+            if (file.isFile()) {
+                try {
+                    State state = new JSONCodec().dec().from(file).get(State.class);
+                    if (state.version == FORMAT_VERSION) {
+                        myEntries.putAll(state.entries);
+                    }
+                } catch (Exception e) {
+                    LOG.warn("Failed to read jar sources cache " + file, e);
+                }
+            }
+            myLoaded = true;
+        }
+    }
+
+    /**
+     * Store the cache if it has changed, entries for jars that no longer exist are removed.
+     */
+    synchronized void save() {
+        if (!myDirty) {
+            return;
+        }
+        myDirty = false;
+
+        myEntries.keySet().removeIf(path -> !new File(path).isFile());
+
+        State state = new State();
+        state.version = FORMAT_VERSION;
+        state.entries.putAll(myEntries);
+
+        File file = getCacheFile();
+        try {
+            FileUtil.createParentDirs(file);
+            new JSONCodec().enc().to(file).put(state);
+        } catch (Exception e) {
+            LOG.warn("Failed to write jar sources cache " + file, e);
+            FileUtil.delete(file);
+        }
+    }
+
+    @NotNull
+    private static File getCacheFile() {
+        return new File(PathManager.getSystemPath(), "amdatu-idea/jar-sources.json");
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.imp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.ProjectTopics;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.project.ModuleListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.LibraryOrderEntry;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.OrderEntry;
+import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.roots.impl.libraries.LibraryEx;
+import com.intellij.openapi.roots.impl.libraries.ProjectLibraryTable;
+import com.intellij.openapi.roots.libraries.Library;
+import com.intellij.openapi.roots.libraries.LibraryTable;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.UserDataHolderEx;
+import com.intellij.util.Function;
+
+/**
+ * The project libraries of repository bundles ({@code bnd:<bsn>:<version>}) and the modules using them.
+ *
+ * <p>Libraries are interned by name, a library is found without searching the library table and its roots are only
+ * changed when the jar or source root of the bundle changed. The registry keeps the libraries used by each module, a
+ * library is removed from the library table after the last module using it is updated or removed instead of checking
+ * the dependencies of all modules after each import. Existing libraries and modules are registered the first time the
+ * registry is used in a session, modules added, removed or renamed outside the importer are tracked through the module
+ * events. Libraries that were removed, renamed or had their roots changed outside the importer are detected when they
+ * are requested.
+ *
+ * <p>The registry is only used in write actions.
+ */
+class LibraryRegistry {
+
+    private static final Key<LibraryRegistry> LIBRARY_REGISTRY = Key.create("amdatu.library.registry");
+
+    private static class Entry {
+        private final Library myLibrary;
+        private final Set<String> myModules = new HashSet<>();
+
+        private Entry(Library library) {
+            myLibrary = library;
+        }
+
+        /**
+         * Whether the library is still in the library table under the name it's registered with.
+         */
+        private boolean isValid(String name) {
+            return !((LibraryEx) myLibrary).isDisposed() && name.equals(myLibrary.getName());
+        }
+    }
+
+    private final String myPrefix;
+    private final Map<String, Entry> myLibraries = new HashMap<>();
+    private final Map<String, Set<String>> myModuleLibraries = new HashMap<>();
+    private final Set<String> myUnused = new HashSet<>();
+
+    private LibraryRegistry(@NotNull Project project, @NotNull String prefix) {
+        myPrefix = prefix;
+
+        for (Library library : ProjectLibraryTable.getInstance(project).getLibraries()) {
+            String name = library.getName();
+            if (name != null && name.startsWith(prefix)) {
+                myLibraries.put(name, new Entry(library));
+            }
+        }
+        for (Module module : ModuleManager.getInstance(project).getModules()) {
+            moduleAdded(module);
+        }
+        // Libraries left behind by a previous session
+        myLibraries.forEach((name, entry) -> {
+            if (entry.myModules.isEmpty()) {
+                myUnused.add(name);
+            }
+        });
+
+        project.getMessageBus().connect(project).subscribe(ProjectTopics.MODULES, new ModuleListener() {
+            @Override
+            public void moduleAdded(@NotNull Project project, @NotNull Module module) {
+                LibraryRegistry.this.moduleAdded(module);
+            }
+
+            @Override
+            public void moduleRemoved(@NotNull Project project, @NotNull Module module) {
+                LibraryRegistry.this.moduleRemoved(module.getName());
+            }
+
+            @Override
+            public void modulesRenamed(@NotNull Project project, @NotNull List<Module> modules,
+                                       @NotNull Function<Module, String> oldNameProvider) {
+                for (Module module : modules) {
+                    LibraryRegistry.this.moduleRemoved(oldNameProvider.fun(module));
+                    LibraryRegistry.this.moduleAdded(module);
+                }
+            }
+        });
+    }
+
+    @NotNull
+    static LibraryRegistry getInstance(@NotNull Project project, @NotNull String prefix) {
+        LibraryRegistry registry = project.getUserData(LIBRARY_REGISTRY);
+        if (registry == null) {
+            registry = ((UserDataHolderEx) project).putUserDataIfAbsent(LIBRARY_REGISTRY,
+                    new LibraryRegistry(project, prefix));
+        }
+        return registry;
+    }
+
+    /**
+     * Get the library of a repository bundle, the library is created when it doesn't exist yet and its roots are
+     * updated when they changed.
+     */
+    @NotNull
+    Library getLibrary(@NotNull LibraryTable.ModifiableModel libraryModel, @NotNull String name,
+                       @NotNull String classesUrl, @Nullable String sourcesUrl) {
+        Entry entry = myLibraries.get(name);
+        if (entry == null || !entry.isValid(name)) {
+            // Not created by an import in this session, or removed from or renamed in the library table
+            Library library = libraryModel.getLibraryByName(name);
+            if (library == null) {
+                library = libraryModel.createLibrary(name);
+            }
+            Entry previous = entry;
+            entry = new Entry(library);
+            if (previous != null) {
+                entry.myModules.addAll(previous.myModules);
+            }
+            myLibraries.put(name, entry);
+        }
+
+        // The roots are compared with the library as they may have been changed outside the importer
+        String[] classesUrls = {classesUrl};
+        String[] sourcesUrls = sourcesUrl != null ? new String[]{sourcesUrl} : new String[0];
+        if (!Arrays.equals(classesUrls, entry.myLibrary.getUrls(OrderRootType.CLASSES))
+                || !Arrays.equals(sourcesUrls, entry.myLibrary.getUrls(OrderRootType.SOURCES))) {
+            Library.ModifiableModel model = entry.myLibrary.getModifiableModel();
+            for (String url : model.getUrls(OrderRootType.CLASSES))
+                model.removeRoot(url, OrderRootType.CLASSES);
+            for (String url : model.getUrls(OrderRootType.SOURCES))
+                model.removeRoot(url, OrderRootType.SOURCES);
+            model.addRoot(classesUrl, OrderRootType.CLASSES);
+            if (sourcesUrl != null) {
+                model.addRoot(sourcesUrl, OrderRootType.SOURCES);
+            }
+            model.commit();
+        }
+        return entry.myLibrary;
+    }
+
+    /**
+     * Register the libraries used by a module after updating its dependencies, libraries that are no longer used by
+     * any module are removed by the next {@link #removeUnusedLibraries(LibraryTable.ModifiableModel)}.
+     */
+    void setModuleLibraries(@NotNull String module, @NotNull OrderEntry[] entries) {
+        Set<String> libraries = new HashSet<>();
+        for (OrderEntry entry : entries) {
+            if (entry instanceof LibraryOrderEntry && !((LibraryOrderEntry) entry).isModuleLevel()) {
+                String name = ((LibraryOrderEntry) entry).getLibraryName();
+                if (name != null && name.startsWith(myPrefix)) {
+                    libraries.add(name);
+                }
+            }
+        }
+        updateModuleLibraries(module, libraries);
+    }
+
+    private void moduleAdded(Module module) {
+        setModuleLibraries(module.getName(), ModuleRootManager.getInstance(module).getOrderEntries());
+    }
+
+    /**
+     * Unregister the libraries of a removed module, a module removed by the importer is unregistered again when the
+     * module model is committed.
+     */
+    void moduleRemoved(@NotNull String module) {
+        updateModuleLibraries(module, Collections.emptySet());
+        myModuleLibraries.remove(module);
+    }
+
+    private void updateModuleLibraries(String module, Set<String> libraries) {
+        Set<String> previous = myModuleLibraries.put(module, libraries);
+        if (previous == null) {
+            previous = Collections.emptySet();
+        }
+
+        for (String name : previous) {
+            Entry entry = myLibraries.get(name);
+            if (entry != null && !libraries.contains(name) && entry.myModules.remove(module)
+                    && entry.myModules.isEmpty()) {
+                myUnused.add(name);
+            }
+        }
+        for (String name : libraries) {
+            Entry entry = myLibraries.get(name);
+            if (entry != null && !previous.contains(name)) {
+                entry.myModules.add(module);
+                myUnused.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Remove the libraries that are no longer used by any module from the library table.
+     */
+    void removeUnusedLibraries(@NotNull LibraryTable.ModifiableModel libraryModel) {
+        for (String name : myUnused) {
+            Entry entry = myLibraries.get(name);
+            if (entry != null && entry.myModules.isEmpty()) {
+                if (entry.isValid(name)) {
+                    libraryModel.removeLibrary(entry.myLibrary);
+                }
+                myLibraries.remove(name);
+            }
+        }
+        myUnused.clear();
+    }
+}
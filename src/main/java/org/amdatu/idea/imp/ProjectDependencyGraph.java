@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.imp;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import aQute.bnd.build.Project;
+import aQute.bnd.build.Workspace;
+import aQute.bnd.header.Parameters;
+import aQute.bnd.osgi.Constants;
+import aQute.bnd.osgi.Processor;
+
+/**
+ * Dependencies between bnd projects determined from the {@code -buildpath}, {@code -testpath} and {@code -dependson}
+ * instructions without preparing the projects.
+ *
+ * <p>The graph contains the given projects and all projects they depend on (transitively), preparing a project also
+ * prepares the projects it depends on so these have to be scheduled as well.
+ */
+class ProjectDependencyGraph {
+
+    private final Map<Project, Set<Project>> myDependencies = new LinkedHashMap<>();
+
+    private ProjectDependencyGraph() {
+    }
+
+    @NotNull
+    static ProjectDependencyGraph build(@NotNull Workspace workspace, @NotNull Collection<Project> projects) {
+        ProjectDependencyGraph graph = new ProjectDependencyGraph();
+        Deque<Project> queue = new ArrayDeque<>(projects);
+        while (!queue.isEmpty()) {
+            Project project = queue.poll();
+            if (graph.myDependencies.containsKey(project)) {
+                continue;
+            }
+
+            Set<Project> dependencies = new LinkedHashSet<>();
+            collectDependencies(workspace, project, project.getProperty(Constants.BUILDPATH), dependencies);
+            collectDependencies(workspace, project, project.getProperty(Constants.TESTPATH), dependencies);
+            collectDependencies(workspace, project, project.getProperty(Constants.DEPENDSON), dependencies);
+            graph.myDependencies.put(project, dependencies);
+            queue.addAll(dependencies);
+        }
+        return graph;
+    }
+
+    private static void collectDependencies(Workspace workspace, Project project, @Nullable String instruction,
+                                            Set<Project> dependencies) {
+        if (instruction == null || instruction.trim().isEmpty()) {
+            return;
+        }
+
+        for (String bsn : new Parameters(instruction).keySet()) {
+            Project dependency = findProject(workspace, bsn);
+            if (dependency != null && dependency != project) {
+                dependencies.add(dependency);
+            }
+        }
+    }
+
+    /**
+     * Find the project for a bsn, sub-bundles of a project have the project name as prefix (e.g. {@code a.b.c} is a
+     * sub-bundle of project {@code a.b})
+     */
+    @Nullable
+    private static Project findProject(Workspace workspace, String bsn) {
+        String name = Processor.removeDuplicateMarker(bsn);
+        while (true) {
+            try {
+                Project project = workspace.getProject(name);
+                if (project != null) {
+                    return project;
+                }
+            } catch (Exception ignored) {
+            }
+
+            int index = name.lastIndexOf('.');
+            if (index <= 0) {
+                return null;
+            }
+            name = name.substring(0, index);
+        }
+    }
+
+    /**
+     * All projects in the graph, the projects to import and the projects they depend on.
+     */
+    @NotNull
+    Set<Project> getProjects() {
+        return myDependencies.keySet();
+    }
+
+    /**
+     * The projects the project directly depends on.
+     */
+    @NotNull
+    Set<Project> getDependencies(@NotNull Project project) {
+        return myDependencies.get(project);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.imp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import aQute.bnd.build.Container;
+import aQute.bnd.util.dto.DTO;
+
+/**
+ * Result of resolving a bnd project, contains everything that's needed to create the module for the project without
+ * having to access the bnd project itself.
+ */
+public class ResolvedProject extends DTO {
+
+    public String name;
+
+    /**
+     * Project directory
+     */
+    public String base;
+
+    public List<String> sourcePath = new ArrayList<>();
+    public String testSrc;
+    public String target;
+    public String srcOutput;
+    public String testOutput;
+
+    public String javacSource;
+    public String javacTarget;
+
+    /**
+     * Dependencies, buildpath and testpath entries that are also on the bootclasspath and references to the project
+     * itself are already filtered out.
+     */
+    public List<ResolvedContainer> bootclasspath = new ArrayList<>();
+    public List<ResolvedContainer> buildpath = new ArrayList<>();
+    public List<ResolvedContainer> testpath = new ArrayList<>();
+
+    public List<ExportedContent> exportedContents = new ArrayList<>();
+
+    /**
+     * Whether preparing the project failed, the project is resolved as far as possible (e.g. without the classpath
+     * entries that couldn't be resolved)
+     */
+    public boolean degraded;
+
+    public static class ResolvedContainer extends DTO {
+        public Container.TYPE type;
+        public String bsn;
+        public String version;
+        public String file;
+
+        /**
+         * Name of the project for {@link Container.TYPE#PROJECT} containers
+         */
+        public String project;
+
+        /**
+         * Whether the depending project exports packages from this (project) dependency
+         */
+        public boolean exported;
+
+        /**
+         * Source root within the jar for {@link Container.TYPE#REPO} and {@link Container.TYPE#EXTERNAL} containers
+         * with embedded sources
+         */
+        public String sourceRoot;
+    }
+
+    /**
+     * Library with buildpath content exported by a (sub) bundle
+     */
+    public static class ExportedContent extends DTO {
+        public String libraryName;
+
+        /**
+         * The generated jar, {@code null} when the bundle doesn't export buildpath content
+         */
+        public String jar;
+    }
+}
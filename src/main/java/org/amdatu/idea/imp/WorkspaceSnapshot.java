@@ -0,0 +1,220 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.imp;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.amdatu.idea.AmdatuIdeaConstants;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+
+import aQute.bnd.build.Container;
+import aQute.bnd.build.Workspace;
+import aQute.bnd.util.dto.DTO;
+import aQute.lib.hex.Hex;
+import aQute.lib.json.JSONCodec;
+
+/**
+ * Snapshot of the resolved state of all projects in a bnd workspace.
+ *
+ * <p>The snapshot is stored in the IDE system directory after each import and used to import the workspace without
+ * resolving the projects when the workspace is opened again and none of the bnd files have changed.
+ */
+public class WorkspaceSnapshot extends DTO {
+
+    private static final Logger LOG = Logger.getInstance(WorkspaceSnapshot.class);
+
+    /**
+     * Increase when the snapshot format changes to ignore snapshots stored by a previous version of the plugin
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Pattern BND_FILE = Pattern.compile(".*\\.bnd");
+
+    public int version;
+    public String fingerprint;
+    public List<ResolvedProject> projects = new ArrayList<>();
+
+    /**
+     * Whether the snapshot can be used for a workspace with the given fingerprint
+     */
+    boolean isValid(@NotNull String currentFingerprint) {
+        if (version != FORMAT_VERSION || !currentFingerprint.equals(fingerprint)) {
+            return false;
+        }
+
+        for (ResolvedProject project : projects) {
+            if (!filesExist(project)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the files a resolved project refers to still exist, files outside the workspace (e.g. from a cached
+     * remote repository) could have been removed.
+     */
+    static boolean filesExist(@NotNull ResolvedProject project) {
+        if (!new File(project.base).isDirectory()) {
+            return false;
+        }
+        for (List<ResolvedProject.ResolvedContainer> path : pathsOf(project)) {
+            for (ResolvedProject.ResolvedContainer container : path) {
+                if ((container.type == Container.TYPE.REPO || container.type == Container.TYPE.EXTERNAL)
+                        && !new File(container.file).isFile()) {
+                    return false;
+                }
+            }
+        }
+        for (ResolvedProject.ExportedContent exportedContent : project.exportedContents) {
+            if (exportedContent.jar != null && !new File(exportedContent.jar).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<List<ResolvedProject.ResolvedContainer>> pathsOf(ResolvedProject project) {
+        List<List<ResolvedProject.ResolvedContainer>> paths = new ArrayList<>();
+        paths.add(project.bootclasspath);
+        paths.add(project.buildpath);
+        paths.add(project.testpath);
+        return paths;
+    }
+
+    @Nullable
+    static WorkspaceSnapshot load(@NotNull Project project) {
+        File file = getSnapshotFile(project);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return new JSONCodec().dec().from(file).get(WorkspaceSnapshot.class);
+        } catch (Exception e) {
+            LOG.warn("Failed to read workspace snapshot " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Store the resolved projects in the snapshot.
+     *
+     * @param replace {@code true} when all projects in the workspace have been resolved, otherwise the resolved
+     *                projects are merged with the projects in the existing snapshot
+     */
+    static synchronized void save(@NotNull Project project, @NotNull String fingerprint,
+                                  @NotNull Collection<ResolvedProject> resolvedProjects, boolean replace) {
+        Map<String, ResolvedProject> projects = new LinkedHashMap<>();
+        if (!replace) {
+            WorkspaceSnapshot existing = load(project);
+            if (existing == null || existing.version != FORMAT_VERSION) {
+                // Can't merge a partial import without a complete snapshot
+                return;
+            }
+            existing.projects.forEach(resolvedProject -> projects.put(resolvedProject.name, resolvedProject));
+        }
+        resolvedProjects.forEach(resolvedProject -> projects.put(resolvedProject.name, resolvedProject));
+
+        WorkspaceSnapshot snapshot = new WorkspaceSnapshot();
+        snapshot.version = FORMAT_VERSION;
+        snapshot.fingerprint = fingerprint;
+        snapshot.projects.addAll(projects.values());
+
+        File file = getSnapshotFile(project);
+        try {
+            FileUtil.createParentDirs(file);
+            new JSONCodec().enc().to(file).put(snapshot);
+        } catch (Exception e) {
+            LOG.warn("Failed to write workspace snapshot " + file, e);
+            FileUtil.delete(file);
+        }
+    }
+
+    /**
+     * Fingerprint of all bnd files in the workspace, this includes the files in the configuration project (cnf), the
+     * files included by the workspace and the bnd files in each project directory.
+     */
+    @NotNull
+    static String fingerprint(@NotNull Workspace workspace) throws Exception {
+        TreeSet<File> files = new TreeSet<>();
+        collectWorkspaceFiles(workspace, files);
+
+        File[] projectDirs = workspace.getBase().listFiles(File::isDirectory);
+        if (projectDirs != null) {
+            for (File projectDir : projectDirs) {
+                collectProjectFiles(projectDir, files);
+            }
+        }
+        return digest(files);
+    }
+
+    /**
+     * Collect the files in the configuration project (cnf) and the files included by the workspace.
+     */
+    static void collectWorkspaceFiles(@NotNull Workspace workspace, @NotNull Collection<File> files) {
+        File cnf = workspace.getBuildDir();
+        files.addAll(FileUtil.findFilesByMask(BND_FILE, cnf));
+        if (workspace.getIncluded() != null) {
+            files.addAll(workspace.getIncluded());
+        }
+    }
+
+    /**
+     * Collect the bnd files in a project directory, nothing is collected when the directory isn't a bnd project.
+     */
+    static void collectProjectFiles(@NotNull File projectDir, @NotNull Collection<File> files) {
+        if (new File(projectDir, AmdatuIdeaConstants.BND_BND).isFile()) {
+            File[] bndFiles = projectDir.listFiles((dir, name) -> BND_FILE.matcher(name).matches());
+            if (bndFiles != null) {
+                files.addAll(Arrays.asList(bndFiles));
+            }
+        }
+    }
+
+    /**
+     * Digest of the path, modification time and size of the files, in iteration order.
+     */
+    @NotNull
+    static String digest(@NotNull Collection<File> files) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        for (File file : files) {
+            String entry = file.getAbsolutePath() + '|' + file.lastModified() + '|' + file.length() + '\n';
+            digest.update(entry.getBytes(StandardCharsets.UTF_8));
+        }
+        return Hex.toHexString(digest.digest());
+    }
+
+    @NotNull
+    private static File getSnapshotFile(@NotNull Project project) {
+        return new File(PathManager.getSystemPath(), "amdatu-idea/snapshots/" + project.getLocationHash() + ".json");
+    }
+}
@@ -21,9 +21,11 @@ import com.intellij.codeInspection.InspectionManager
 import com.intellij.codeInspection.LocalInspectionTool
 import com.intellij.codeInspection.ProblemDescriptor
 import com.intellij.codeInspection.ProblemHighlightType
+import com.intellij.openapi.util.ThrowableComputable
 import com.intellij.patterns.PlatformPatterns
 import com.intellij.psi.PsiFile
 import com.intellij.psi.util.PsiTreeUtil
+import org.amdatu.idea.AmdatuIdeaPlugin
 import org.amdatu.idea.getBundlesOnlyAvailableInBaselineRepo
 import org.amdatu.idea.lang.bundledescriptor.psi.BundleDescriptorTokenType
 import org.amdatu.idea.lang.bundledescriptor.psi.Header
@@ -59,10 +61,12 @@ class MissingBundleInspection : LocalInspectionTool() {
 
         val onlyAvailableInBaselineRepo = getBundlesOnlyAvailableInBaselineRepo(file.project)
 
-
-        return listOf(Constants.BUILDPATH, Constants.RUNBUNDLES)
-                .flatMap { createProblemDescriptors(it, file, bndProject, onlyAvailableInBaselineRepo, manager) }
-                .toTypedArray()
+        val amdatuIdePlugin = file.project.getComponent(AmdatuIdeaPlugin::class.java)
+        return amdatuIdePlugin.tryRunRead(ThrowableComputable<Array<ProblemDescriptor>, Exception> {
+            listOf(Constants.BUILDPATH, Constants.RUNBUNDLES)
+                    .flatMap { createProblemDescriptors(it, file, bndProject, onlyAvailableInBaselineRepo, manager) }
+                    .toTypedArray()
+        })
     }
 
     private fun createProblemDescriptors(headerName: String, file: PsiFile, bndProject: Project, onlyAvailableInBaselineRepo: Set<String>, manager: InspectionManager): List<ProblemDescriptor> {
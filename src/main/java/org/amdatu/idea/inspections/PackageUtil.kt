@@ -16,11 +16,13 @@ package org.amdatu.idea.inspections
 
 import aQute.bnd.header.Parameters
 import aQute.bnd.osgi.Instructions
-import com.intellij.analysis.AnalysisScope
 import com.intellij.openapi.module.Module
+import com.intellij.openapi.roots.ModuleRootManager
+import com.intellij.openapi.vfs.VfsUtilCore
 import com.intellij.psi.*
 import com.intellij.psi.impl.source.tree.java.PsiReferenceExpressionImpl
 import com.intellij.psi.search.GlobalSearchScope
+import org.amdatu.idea.SourcePackageIndex
 import org.apache.commons.io.IOUtils
 import java.io.File
 import java.io.FileInputStream
@@ -115,23 +117,12 @@ class PackageUtil {
          * @param module the module to get a list of packages for
          */
         fun getPsiPackagesForModule(module: Module): Set<PsiPackage> {
-
-            val packages = mutableSetOf<PsiPackage>()
-
-            val moduleScope = AnalysisScope(module)
+            val sourceRoots = ModuleRootManager.getInstance(module).sourceRoots.map { VfsUtilCore.virtualToIoFile(it) }
             val javaPsiFacade = JavaPsiFacade.getInstance(module.project)
 
-            moduleScope.accept(object : PsiRecursiveElementVisitor() {
-                override fun visitFile(file: PsiFile) {
-                    if (file is PsiJavaFile) {
-                        val psiPackage = javaPsiFacade.findPackage(file.packageName)
-                        if (psiPackage != null) {
-                            packages.add(psiPackage)
-                        }
-                    }
-                }
-            })
-            return packages
+            return SourcePackageIndex.getInstance(module.project).getPackages(sourceRoots)
+                    .mapNotNull { javaPsiFacade.findPackage(it) }
+                    .toSet()
         }
     }
 }
@@ -21,6 +21,7 @@ import aQute.bnd.osgi.Constants
 import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.module.Module
 import com.intellij.openapi.roots.ProjectFileIndex
+import com.intellij.openapi.util.ThrowableComputable
 import com.intellij.psi.PsiFile
 import org.amdatu.idea.AmdatuIdeaPlugin
 import java.io.File
@@ -40,17 +41,22 @@ class PsiUtil {
 
         fun getBndBuilderContextForPsiFile(psiFile: PsiFile): BndBuilderContext? {
             val module = getModuleForPsiFile(psiFile) ?: return null
-            val workspace = getBndWorkspace(psiFile) ?: return null
+            val amdatuIdePlugin = getAmdatuIdePlugin(psiFile) ?: return null
+
+            // Don't wait for a workspace refresh, inspections will run again once it's done
+            return amdatuIdePlugin.tryRunRead(ThrowableComputable<BndBuilderContext?, Exception> {
+                val workspace = getBndWorkspace(amdatuIdePlugin, psiFile) ?: return@ThrowableComputable null
 
-            val bndProject = getBndProject(workspace, module) ?: return null
+                val bndProject = getBndProject(workspace, module) ?: return@ThrowableComputable null
 
-            val builder: Builder = (if (bndProject.get(Constants.SUB) == null || psiFile.name == "bnd.bnd") {
-                bndProject.getBuilder(null)
-            } else {
-                bndProject.getSubBuilder(File(psiFile.virtualFile.path))
-            }) ?: return null
+                val builder: Builder = (if (bndProject.get(Constants.SUB) == null || psiFile.name == "bnd.bnd") {
+                    bndProject.getBuilder(null)
+                } else {
+                    bndProject.getSubBuilder(File(psiFile.virtualFile.path))
+                }) ?: return@ThrowableComputable null
 
-            return BndBuilderContext(psiFile, module, workspace, bndProject, builder)
+                BndBuilderContext(psiFile, module, workspace, bndProject, builder)
+            })
         }
 
         private fun getBndProject(workspace: Workspace, module: Module): Project? {
@@ -61,11 +67,11 @@ class PsiUtil {
             return project
         }
 
-        private fun getBndWorkspace(psiFile: PsiFile): Workspace? {
-            val amdatuIdePlugin = getAmdatuIdePlugin(psiFile) ?: return null
-            val workspace = amdatuIdePlugin.workspace
+        private fun getBndWorkspace(amdatuIdePlugin: AmdatuIdeaPlugin, psiFile: PsiFile): Workspace? {
+            // Don't wait for the workspace to be created, inspections will run again once it's available
+            val workspace = amdatuIdePlugin.workspaceIfReady
             if (workspace == null) {
-                logger.debug({ "Failed to get module for PsiFile: $psiFile" })
+                logger.debug({ "Workspace not available for PsiFile: $psiFile" })
             }
             return workspace
         }
@@ -19,6 +19,7 @@ import aQute.bnd.osgi.Constants
 import aQute.lib.utf8properties.UTF8Properties
 import com.intellij.codeInsight.completion.*
 import com.intellij.codeInsight.lookup.LookupElementBuilder
+import com.intellij.openapi.util.ThrowableComputable
 import com.intellij.patterns.PlatformPatterns.psiElement
 import com.intellij.patterns.PsiElementPattern
 import com.intellij.patterns.StandardPatterns
@@ -57,16 +58,21 @@ class BsnCompletionContributor : CompletionContributor() {
             p.load("$DUMMY_PROPERTY_KEY: ${parameters.position.parent.text}", null, null)
 
             val added = Parameters(p[DUMMY_PROPERTY_KEY] as String).keys
-            amdatuIdePlugin.workspace.allProjects
-                    .flatMap {
-                        it.getBuilder(null)
-                                .subBuilders
-                                .filter { !workspaceBundlesWithExportedPackagesOnly || it.exportPackage.isNotEmpty() } // Ignore bundles that don't export anything
-                                .filter { !added.contains(it.bsn) } // Remove already added bundles
-                                .map { "${it.bsn};version=latest" }
+            // Don't wait for the workspace to be created, there is nothing to complete until it's available
+            val workspace = amdatuIdePlugin.workspaceIfReady ?: return
+            // Workspace bundles are left out while the workspace is being refreshed
+            amdatuIdePlugin.tryRunRead(ThrowableComputable<List<String>, Exception> {
+                workspace.allProjects
+                        .flatMap {
+                            it.getBuilder(null)
+                                    .subBuilders
+                                    .filter { !workspaceBundlesWithExportedPackagesOnly || it.exportPackage.isNotEmpty() } // Ignore bundles that don't export anything
+                                    .filter { !added.contains(it.bsn) } // Remove already added bundles
+                                    .map { "${it.bsn};version=latest" }
 
-                    }
-                    .forEach {
+                        }
+            })
+                    ?.forEach {
                         result.addElement(LookupElementBuilder.create(it))
                     }
             getBundles(parameters.position.project).forEach {
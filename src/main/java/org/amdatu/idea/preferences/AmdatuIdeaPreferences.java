@@ -29,6 +29,8 @@ import java.util.List;
 public class AmdatuIdeaPreferences implements PersistentStateComponent<AmdatuIdeaPreferences> {
 
     private List<String> myTemplateRepositoryUrls = ContainerUtil.newArrayList();
+    private int myRefreshDebounceMillis = 500;
+    private int myRepositoryRefreshTimeoutSeconds = 60;
 
     public AmdatuIdeaPreferences() {
         myTemplateRepositoryUrls.add("http://amdatu-repo.s3.amazonaws.com/amdatu-blueprint/snapshot/repo/index.xml.gz");
@@ -57,4 +59,26 @@ public class AmdatuIdeaPreferences implements PersistentStateComponent<AmdatuIde
     public void setTemplateRepositoryUrls(List<String> templateRepositoryUrls) {
         myTemplateRepositoryUrls = templateRepositoryUrls;
     }
+
+    /**
+     * Time to wait for more changes before a workspace refresh or module re-import is started.
+     */
+    public int getRefreshDebounceMillis() {
+        return myRefreshDebounceMillis;
+    }
+
+    public void setRefreshDebounceMillis(int refreshDebounceMillis) {
+        myRefreshDebounceMillis = refreshDebounceMillis;
+    }
+
+    /**
+     * Maximum time a single repository may take to refresh during a workspace refresh.
+     */
+    public int getRepositoryRefreshTimeoutSeconds() {
+        return myRepositoryRefreshTimeoutSeconds;
+    }
+
+    public void setRepositoryRefreshTimeoutSeconds(int repositoryRefreshTimeoutSeconds) {
+        myRepositoryRefreshTimeoutSeconds = repositoryRefreshTimeoutSeconds;
+    }
 }
@@ -25,7 +25,9 @@ import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.JList;
 import javax.swing.JPanel;
+import javax.swing.JSpinner;
 import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 
@@ -35,6 +37,8 @@ public class AmdatuIdeaPreferencesEditor implements SearchableConfigurable {
     private JTextField newTemplateRepo;
     private JPanel root;
     private JPanel templateRepoListPanel;
+    private JSpinner refreshDebounceSpinner;
+    private JSpinner repositoryRefreshTimeoutSpinner;
     private CollectionListModel<String> myTemplateRepoListModel;
 
     private boolean modified = false;
@@ -48,6 +52,10 @@ public class AmdatuIdeaPreferencesEditor implements SearchableConfigurable {
                 modified = true;
             }
         });
+        refreshDebounceSpinner.setModel(new SpinnerNumberModel(500, 0, 60000, 100));
+        refreshDebounceSpinner.addChangeListener(e -> modified = true);
+        repositoryRefreshTimeoutSpinner.setModel(new SpinnerNumberModel(60, 1, 3600, 10));
+        repositoryRefreshTimeoutSpinner.addChangeListener(e -> modified = true);
     }
 
     @NotNull
@@ -101,6 +109,8 @@ public class AmdatuIdeaPreferencesEditor implements SearchableConfigurable {
         AmdatuIdeaPreferences preferences = AmdatuIdeaPreferences.getInstance();
         myTemplateRepoListModel.removeAll();
         myTemplateRepoListModel.addAll(0, preferences.getTemplateRepositoryUrls());
+        refreshDebounceSpinner.setValue(preferences.getRefreshDebounceMillis());
+        repositoryRefreshTimeoutSpinner.setValue(preferences.getRepositoryRefreshTimeoutSeconds());
         this.modified = false;
     }
 
@@ -108,6 +118,8 @@ public class AmdatuIdeaPreferencesEditor implements SearchableConfigurable {
     public void apply() {
         AmdatuIdeaPreferences preferences = AmdatuIdeaPreferences.getInstance();
         preferences.setTemplateRepositoryUrls(myTemplateRepoListModel.getItems());
+        preferences.setRefreshDebounceMillis((Integer) refreshDebounceSpinner.getValue());
+        preferences.setRepositoryRefreshTimeoutSeconds((Integer) repositoryRefreshTimeoutSpinner.getValue());
         this.modified = false;
     }
 
@@ -24,7 +24,12 @@ class AmdatuIdeaToolWindowFactory : ToolWindowFactory {
     override fun createToolWindowContent(project: Project, toolWindow: ToolWindow) {
 
         val contentFactory = ContentFactory.SERVICE.getInstance()
-        val content = contentFactory.createContent(RepositoriesPanel(project).createRepositoriesPanel(), "", true)
+        val content = contentFactory.createContent(RepositoriesPanel(project).createRepositoriesPanel(), "Repositories", true)
         toolWindow.contentManager.addContent(content)
+
+        val statisticsPanel = RefreshStatisticsPanel(project)
+        val statisticsContent = contentFactory.createContent(statisticsPanel.createRefreshStatisticsPanel(), "Refresh Statistics", true)
+        statisticsContent.setDisposer(statisticsPanel)
+        toolWindow.contentManager.addContent(statisticsContent)
     }
 }
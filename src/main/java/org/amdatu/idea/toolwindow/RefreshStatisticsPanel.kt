@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.amdatu.idea.toolwindow
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.fileChooser.FileChooserFactory
+import com.intellij.openapi.fileChooser.FileSaverDescriptor
+import com.intellij.openapi.project.Project
+import com.intellij.ui.ColoredTreeCellRenderer
+import com.intellij.ui.SimpleTextAttributes
+import com.intellij.ui.layout.CCFlags
+import com.intellij.ui.layout.panel
+import com.intellij.ui.treeStructure.Tree
+import org.amdatu.idea.AmdatuIdeaPlugin
+import org.amdatu.idea.RefreshStatistics
+import java.text.SimpleDateFormat
+import java.util.*
+import javax.swing.JButton
+import javax.swing.JPanel
+import javax.swing.JScrollPane
+import javax.swing.JTree
+import javax.swing.tree.DefaultMutableTreeNode
+import javax.swing.tree.DefaultTreeModel
+
+/**
+ * Shows the timings of the recent workspace lifecycle operations, per phase and per project or repository.
+ *
+ * The panel stops listening for finished operations when it is disposed, it should be set as the disposer of its
+ * content.
+ */
+class RefreshStatisticsPanel(private val myProject: Project) : Disposable {
+
+    private val myStatistics = RefreshStatistics.getInstance(myProject)
+    private val myRoot = DefaultMutableTreeNode()
+    private val myTreeModel = DefaultTreeModel(myRoot)
+    private val myTree = Tree(myTreeModel)
+
+    data class Item(val name: String, val duration: Long)
+
+    fun createRefreshStatisticsPanel(): JPanel {
+        myTree.apply {
+            isEditable = false
+            isRootVisible = false
+            cellRenderer = object : ColoredTreeCellRenderer() {
+                override fun customizeCellRenderer(tree: JTree, value: Any?, selected: Boolean, expanded: Boolean, leaf: Boolean, row: Int, hasFocus: Boolean) {
+                    val userObject = (value as? DefaultMutableTreeNode)?.userObject
+                    when (userObject) {
+                        is RefreshStatistics.Operation -> {
+                            append(userObject.name, SimpleTextAttributes.REGULAR_BOLD_ATTRIBUTES)
+                            append(" ${userObject.duration} ms")
+                            append("  ${TIME_FORMAT.format(Date(userObject.start))}", SimpleTextAttributes.GRAYED_ATTRIBUTES)
+                        }
+                        is RefreshStatistics.Phase -> {
+                            append(userObject.name)
+                            append(" ${userObject.duration} ms", SimpleTextAttributes.GRAYED_ATTRIBUTES)
+                        }
+                        is Item -> {
+                            append(userObject.name)
+                            append(" ${userObject.duration} ms", SimpleTextAttributes.GRAYED_ATTRIBUTES)
+                        }
+                    }
+                }
+            }
+        }
+
+        myProject.messageBus.connect(this).subscribe(RefreshStatistics.Listener.TOPIC, object : RefreshStatistics.Listener {
+            override fun operationFinished(operation: RefreshStatistics.Operation) {
+                ApplicationManager.getApplication().invokeLater({ updateTree() }, myProject.disposed)
+            }
+        })
+        updateTree()
+
+        val exportButton = JButton("Export...")
+        exportButton.addActionListener { export() }
+        val clearButton = JButton("Clear")
+        clearButton.addActionListener {
+            myStatistics.clear()
+            updateTree()
+        }
+
+        return panel {
+            row {
+                buttonGroup {
+                    exportButton()
+                    clearButton()
+                }
+            }
+            row {
+                panel {
+                    row {
+                        JScrollPane(myTree)(CCFlags.growX, CCFlags.pushX, CCFlags.growY, CCFlags.pushY)
+                    }
+                }(CCFlags.growX, CCFlags.pushX, CCFlags.growY, CCFlags.pushY)
+            }
+        }
+    }
+
+    override fun dispose() {
+    }
+
+    private fun updateTree() {
+        myRoot.removeAllChildren()
+        // Snapshots, the phases of an operation are still updated by concurrent work that finishes late
+        for (operation in myStatistics.history.map { it.snapshot() }) {
+            val operationNode = DefaultMutableTreeNode(operation)
+            for (phase in operation.phases) {
+                val phaseNode = DefaultMutableTreeNode(phase)
+                phase.items.entries
+                        .map { Item(it.key, it.value) }
+                        .sortedByDescending { it.duration }
+                        .forEach { phaseNode.add(DefaultMutableTreeNode(it)) }
+                operationNode.add(phaseNode)
+            }
+            myRoot.add(operationNode)
+        }
+        myTreeModel.reload()
+    }
+
+    private fun export() {
+        val descriptor = FileSaverDescriptor("Export Refresh Statistics", "Export the refresh statistics as JSON", "json")
+        val fileWrapper = FileChooserFactory.getInstance().createSaveFileDialog(descriptor, myProject)
+                .save(null, "refresh-statistics.json") ?: return
+
+        try {
+            myStatistics.export(fileWrapper.file)
+        } catch (e: Exception) {
+            myProject.getComponent(AmdatuIdeaPlugin::class.java)?.notificationService
+                    ?.error("Failed to export refresh statistics: ${e.message}")
+        }
+    }
+
+    companion object {
+        private val TIME_FORMAT = SimpleDateFormat("HH:mm:ss")
+    }
+}